@@ -0,0 +1,22 @@
+package newpack.language.interprettest;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of benchmarks.jar. Behaves like the stock JMH launcher but always
+// attaches the GC profiler so every run reports allocation rates.
+public class Benchmarks {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        boolean profiled = options.getProfilers().stream()
+                .anyMatch(profiler -> profiler.getKlass().equals("gc")
+                        || profiler.getKlass().equals(GCProfiler.class.getName()));
+        if (!profiled)
+            builder.addProfiler(GCProfiler.class);
+        new Runner(builder.build()).run();
+    }
+}
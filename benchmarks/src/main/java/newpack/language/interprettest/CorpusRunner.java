@@ -0,0 +1,230 @@
+package newpack.language.interprettest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs every .lang program of the corpus in-process and records wall time, allocated
+// bytes and peak RSS. Cold iterations load the interpreter through a fresh class
+// loader so its classes start out interpreted again; warm iterations reuse the
+// already compiled code after a warmup. Each run is appended to a JSON history and
+// compared against a baseline; the exit status is 1 when something regressed.
+public class CorpusRunner {
+    private static final String PROGRAMS = "newpack.language.interprettest.Programs";
+
+    private Path corpus = Paths.get("benchmarks", "corpus");
+    private Path history = Paths.get("benchmarks", "results", "history.jsonl");
+    private Path baseline = Paths.get("benchmarks", "results", "baseline.json");
+    private int cold = 3;
+    private int warmup = 5;
+    private int iterations = 10;
+    private double threshold = 0.10;
+    private boolean saveBaseline = false;
+
+    public static void main(String[] args) throws Exception {
+        CorpusRunner runner = new CorpusRunner();
+        for (String arg : args) {
+            if (!runner.option(arg)) {
+                System.err.println("Usage: CorpusRunner [--corpus=dir] [--history=file] [--baseline=file]"
+                        + " [--cold=n] [--warmup=n] [--iterations=n] [--threshold=fraction] [--save-baseline]");
+                System.exit(64);
+            }
+        }
+        System.exit(runner.run() ? 0 : 1);
+    }
+
+    private boolean option(String arg) {
+        String value = arg.substring(arg.indexOf('=') + 1);
+        if (arg.startsWith("--corpus="))
+            corpus = Paths.get(value);
+        else if (arg.startsWith("--history="))
+            history = Paths.get(value);
+        else if (arg.startsWith("--baseline="))
+            baseline = Paths.get(value);
+        else if (arg.startsWith("--cold="))
+            cold = Integer.parseInt(value);
+        else if (arg.startsWith("--warmup="))
+            warmup = Integer.parseInt(value);
+        else if (arg.startsWith("--iterations="))
+            iterations = Integer.parseInt(value);
+        else if (arg.startsWith("--threshold="))
+            threshold = Double.parseDouble(value);
+        else if (arg.equals("--save-baseline"))
+            saveBaseline = true;
+        else
+            return false;
+        return true;
+    }
+
+    private boolean run() throws Exception {
+        List<Path> programs;
+        try (Stream<Path> files = Files.list(corpus)) {
+            programs = files.filter(path -> path.toString().endsWith(".lang")).sorted().collect(Collectors.toList());
+        }
+        Map<String, Object> results = new LinkedHashMap<>();
+        for (Path program : programs) {
+            String source = Files.readString(program);
+            results.put(program.getFileName().toString(), measure(program, source));
+        }
+
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("timestamp", Instant.now().toString());
+        record.put("corpusVersion", Files.readString(corpus.resolve("VERSION")).trim());
+        record.put("java", System.getProperty("java.version"));
+        record.put("programs", results);
+        String json = Json.write(record);
+        Files.createDirectories(history.toAbsolutePath().getParent());
+        Files.writeString(history, json + "\n", StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (saveBaseline)
+            Files.writeString(baseline, json + "\n");
+
+        report(results);
+        return compare(record);
+    }
+
+    private Map<String, Object> measure(Path program, String source) throws Exception {
+        boolean peakTracking = resetPeakRss();
+        List<Double> coldMillis = new ArrayList<>();
+        for (int i = 0; i < cold; i++) {
+            try (URLClassLoader loader = isolatedLoader()) {
+                Class<?> programs = Class.forName(PROGRAMS, true, loader);
+                Method run = programs.getDeclaredMethod("run", String.class);
+                Method unload = programs.getDeclaredMethod("unload");
+                run.setAccessible(true);
+                unload.setAccessible(true);
+                long start = System.nanoTime();
+                Object success;
+                try {
+                    success = run.invoke(null, source);
+                    coldMillis.add((System.nanoTime() - start) / 1e6);
+                } catch (InvocationTargetException error) {
+                    throw new IllegalStateException(program + " failed", error.getCause());
+                } finally {
+                    unload.invoke(null);
+                }
+                if (!(Boolean) success)
+                    throw new IllegalStateException(program + " raised a runtime error");
+            }
+        }
+
+        for (int i = 0; i < warmup; i++)
+            Programs.run(source);
+        List<Double> warmMillis = new ArrayList<>();
+        List<Double> allocated = new ArrayList<>();
+        for (int i = 0; i < iterations; i++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            boolean success = Programs.run(source);
+            warmMillis.add((System.nanoTime() - start) / 1e6);
+            allocated.add((double) (allocatedBytes() - bytes));
+            if (!success)
+                throw new IllegalStateException(program + " raised a runtime error");
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("coldMillis", median(coldMillis));
+        result.put("warmMillis", median(warmMillis));
+        result.put("warmMinMillis", warmMillis.stream().mapToDouble(Double::doubleValue).min().orElse(0));
+        result.put("allocatedBytes", median(allocated));
+        result.put("peakRssBytes", peakTracking ? peakRss() : -1);
+        return result;
+    }
+
+    private boolean compare(Map<String, Object> record) throws IOException {
+        if (saveBaseline || !Files.exists(baseline)) {
+            System.out.println(saveBaseline ? "Saved baseline " + baseline : "No baseline at " + baseline);
+            return true;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> base = (Map<String, Object>) Json.parse(Files.readString(baseline));
+        if (!base.get("corpusVersion").equals(record.get("corpusVersion")))
+            System.out.println("Warning: baseline was recorded for corpus version " + base.get("corpusVersion"));
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> before = (Map<String, Map<String, Object>>) base.get("programs");
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> after = (Map<String, Map<String, Object>>) record.get("programs");
+        boolean passed = true;
+        for (Map.Entry<String, Map<String, Object>> entry : after.entrySet()) {
+            Map<String, Object> old = before.get(entry.getKey());
+            if (old == null)
+                continue;
+            for (String metric : Arrays.asList("warmMillis", "coldMillis", "allocatedBytes")) {
+                double was = ((Number) old.get(metric)).doubleValue();
+                double now = ((Number) entry.getValue().get(metric)).doubleValue();
+                if (was > 0 && now > was * (1 + threshold)) {
+                    System.out.printf("REGRESSION %s %s: %.2f -> %.2f (+%.1f%%)%n",
+                            entry.getKey(), metric, was, now, (now / was - 1) * 100);
+                    passed = false;
+                }
+            }
+        }
+        System.out.println(passed ? "No regressions above " + threshold * 100 + "%" : "Regressions found");
+        return passed;
+    }
+
+    private static void report(Map<String, Object> results) {
+        System.out.printf("%-24s %12s %12s %16s %14s%n", "program", "cold ms", "warm ms", "allocated B", "peak RSS B");
+        for (Map.Entry<String, Object> entry : results.entrySet()) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> result = (Map<String, Object>) entry.getValue();
+            System.out.printf("%-24s %12.2f %12.2f %16.0f %14s%n", entry.getKey(), result.get("coldMillis"),
+                    result.get("warmMillis"), result.get("allocatedBytes"), result.get("peakRssBytes"));
+        }
+    }
+
+    private static URLClassLoader isolatedLoader() {
+        Set<URL> locations = new LinkedHashSet<>();
+        locations.add(Programs.class.getProtectionDomain().getCodeSource().getLocation());
+        locations.add(Interpreter.class.getProtectionDomain().getCodeSource().getLocation());
+        return new URLClassLoader(locations.toArray(new URL[0]), ClassLoader.getPlatformClassLoader());
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Writing 5 to clear_refs resets VmHWM, the kernel's peak resident set size.
+    private static boolean resetPeakRss() {
+        try {
+            Files.writeString(Paths.get("/proc/self/clear_refs"), "5");
+            return true;
+        } catch (IOException | UnsupportedOperationException error) {
+            return false;
+        }
+    }
+
+    private static long peakRss() throws IOException {
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+            if (line.startsWith("VmHWM:"))
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+        }
+        return -1;
+    }
+
+    private static double median(List<Double> values) {
+        if (values.isEmpty())
+            return 0;
+        double[] sorted = values.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+}
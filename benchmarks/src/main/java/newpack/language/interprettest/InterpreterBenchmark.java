@@ -0,0 +1,73 @@
+package newpack.language.interprettest;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Each program loops 1000 times over a single kind of operation so that the
+// cost of visiting the loop itself is the same across benchmarks.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+    private static final String LOOP = "var i = 0;\nwhile (i < 1000) { %s i = i + 1; }\n";
+
+    private List<Stmt> emptyLoop;
+    private List<Stmt> integerArithmetic;
+    private List<Stmt> mixedArithmetic;
+    private List<Stmt> calls;
+    private List<Stmt> integerDivision;
+    private List<Stmt> decimalDivision;
+    private Interpreter interpreter;
+
+    @Setup
+    public void setup() {
+        emptyLoop = Programs.compile(String.format(LOOP, ""));
+        integerArithmetic = Programs.compile("var a = 123456789012345678901234567890;\n"
+                + "var b = 987654321098765432109876543210;\nvar c = 0;\n"
+                + String.format(LOOP, "c = a * b + a - b;"));
+        mixedArithmetic = Programs.compile("var a = 1234567;\nvar b = 0.25;\nvar c = 0;\n"
+                + String.format(LOOP, "c = a * b + a - b;"));
+        calls = Programs.compile("function identity(n) { return n; }\n"
+                + String.format(LOOP, "identity(i);"));
+        integerDivision = Programs.compile("var a = 1000000000000000000007;\nvar c = 0;\n"
+                + String.format(LOOP, "c = a / 7;"));
+        decimalDivision = Programs.compile("var a = 10.5;\nvar c = 0;\n"
+                + "var i = 0;\nwhile (i < 10) { c = a / 3.0; i = i + 1; }\n");
+        interpreter = Programs.interpreter();
+    }
+
+    @Benchmark
+    public void emptyLoop() {
+        interpreter.interpret(emptyLoop);
+    }
+
+    @Benchmark
+    public void bigIntegerArithmetic() {
+        interpreter.interpret(integerArithmetic);
+    }
+
+    @Benchmark
+    public void mixedArithmetic() {
+        interpreter.interpret(mixedArithmetic);
+    }
+
+    @Benchmark
+    public void functionCalls() {
+        interpreter.interpret(calls);
+    }
+
+    @Benchmark
+    public void integerDivision() {
+        interpreter.interpret(integerDivision);
+    }
+
+    @Benchmark
+    public void decimalDivision() {
+        interpreter.interpret(decimalDivision);
+    }
+}
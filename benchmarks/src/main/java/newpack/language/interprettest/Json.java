@@ -0,0 +1,145 @@
+package newpack.language.interprettest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Just enough JSON for the corpus history: objects, strings and numbers.
+final class Json {
+    private final String text;
+    private int position = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.position != text.length())
+            throw json.error("Trailing characters");
+        return value;
+    }
+
+    static String write(Object value) {
+        StringBuilder out = new StringBuilder();
+        write(out, value);
+        return out.toString();
+    }
+
+    private static void write(StringBuilder out, Object value) {
+        if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first)
+                    out.append(',');
+                first = false;
+                write(out, entry.getKey().toString());
+                out.append(':');
+                write(out, entry.getValue());
+            }
+            out.append('}');
+        } else if (value instanceof String) {
+            out.append('"');
+            for (char c : ((String) value).toCharArray()) {
+                if (c == '"' || c == '\\')
+                    out.append('\\').append(c);
+                else if (c < ' ')
+                    out.append(String.format("\\u%04x", (int) c));
+                else
+                    out.append(c);
+            }
+            out.append('"');
+        } else {
+            out.append(value);
+        }
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (position >= text.length())
+            throw error("Unexpected end of input");
+        char c = text.charAt(position);
+        if (c == '{')
+            return object();
+        if (c == '"')
+            return string();
+        return number();
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            object.put(key, value());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+                continue;
+            }
+            expect('}');
+            return object;
+        }
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (peek() != '"') {
+            char c = text.charAt(position++);
+            if (c == '\\') {
+                char escaped = text.charAt(position++);
+                if (escaped == 'u') {
+                    value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    position += 4;
+                } else {
+                    value.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped);
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        position++;
+        return value.toString();
+    }
+
+    private Double number() {
+        int start = position;
+        while (position < text.length() && "+-.eE0123456789".indexOf(text.charAt(position)) >= 0)
+            position++;
+        if (start == position)
+            throw error("Expected a value");
+        return Double.valueOf(text.substring(start, position));
+    }
+
+    private char peek() {
+        if (position >= text.length())
+            throw error("Unexpected end of input");
+        return text.charAt(position);
+    }
+
+    private void expect(char c) {
+        if (peek() != c)
+            throw error("Expected '" + c + "'");
+        position++;
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+            position++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + position);
+    }
+}
@@ -0,0 +1,55 @@
+package newpack.language.interprettest;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KernelBenchmark {
+    private List<Stmt> fib;
+    private List<Stmt> loops;
+    private List<Stmt> strings;
+    private Interpreter interpreter;
+
+    @Setup
+    public void setup() {
+        fib = Programs.compile("function fib(n) {\n"
+                + "    if (n < 2) return n;\n"
+                + "    return fib(n - 1) + fib(n - 2);\n"
+                + "}\n"
+                + "print fib(20);\n");
+        loops = Programs.compile("var sum = 0;\n"
+                + "for (var i = 0; i < 100; i = i + 1) {\n"
+                + "    for (var j = 0; j < 100; j = j + 1) {\n"
+                + "        sum = sum + i * j;\n"
+                + "    }\n"
+                + "}\n"
+                + "print sum;\n");
+        strings = Programs.compile("var text = \"\";\n"
+                + "var i = 0;\n"
+                + "while (i < 10000) { text = text * \"line of report output\"; i = i + 1; }\n"
+                + "print text == \"\";\n");
+        interpreter = Programs.interpreter();
+    }
+
+    @Benchmark
+    public void fib() {
+        interpreter.interpret(fib);
+    }
+
+    @Benchmark
+    public void nestedLoops() {
+        interpreter.interpret(loops);
+    }
+
+    @Benchmark
+    public void stringBuilding() {
+        interpreter.interpret(strings);
+    }
+}
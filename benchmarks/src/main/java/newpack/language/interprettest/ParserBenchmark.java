@@ -0,0 +1,40 @@
+package newpack.language.interprettest;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"100", "1000"})
+    private int functions;
+    private List<Token> tokens;
+    private List<Token> expressionTokens;
+
+    @Setup
+    public void setup() {
+        tokens = new Scanner(Programs.library(functions)).scanTokens();
+        expressionTokens = new Scanner(Programs.expressions(functions)).scanTokens();
+    }
+
+    @Benchmark
+    public int parse() {
+        return new Parser(tokens).parse().size();
+    }
+
+    @Benchmark
+    public int parseLazy() {
+        return new Parser(tokens, true, new Diagnostics(System.err)).parse().size();
+    }
+
+    @Benchmark
+    public int parseExpressions() {
+        return new Parser(expressionTokens).parse().size();
+    }
+}
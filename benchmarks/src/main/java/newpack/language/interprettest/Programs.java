@@ -0,0 +1,83 @@
+package newpack.language.interprettest;
+
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+final class Programs {
+    private Programs() {
+    }
+
+    // The pipeline scripts run through, inlining included.
+    static List<Stmt> compile(String source) {
+        List<Stmt> statements = Language.compile(source, false, new Diagnostics(System.err));
+        if (statements == null)
+            throw new IllegalStateException("Benchmark program does not parse");
+        return statements;
+    }
+
+    // Runs a whole script the way Language.runFile does, minus the process exit.
+    static boolean run(String source) {
+        Interpreter interpreter = interpreter();
+        interpreter.interpret(compile(source));
+        return !interpreter.diagnostics.hadRuntimeError;
+    }
+
+    // Lets a runner that loaded these classes in its own class loader close it.
+    static void unload() {
+        Telemetry.stop();
+    }
+
+    static Interpreter interpreter() {
+        return new Interpreter(new Output(Channels.newChannel(OutputStream.nullOutputStream()),
+                StandardCharsets.UTF_8, Output.FlushPolicy.ON_SIZE, Output.DEFAULT_BUFFER_SIZE));
+    }
+
+    // A library-shaped source: many small functions mixing arithmetic, strings,
+    // comments and control flow, similar to the scripts the scanner and parser see.
+    static String library(int functions) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            source.append("# helper number ").append(i).append('\n');
+            source.append("function helper").append(i).append("(a, b, label) {\n");
+            source.append("    var total = a * ").append(i + 1).append(" + b / 3.25 - 17;\n");
+            source.append("    var text = label * \"-").append(i).append("\";\n");
+            source.append("    for (var k = 0; k < 10; k = k + 1) {\n");
+            source.append("        if (total >= 1000 and k != 3) total = total - k; else total = total + 1;\n");
+            source.append("    }\n");
+            source.append("    while (total > 5000) { total = total / 2; }\n");
+            source.append("    if (text == \"none\" or !(a <= b)) return none;\n");
+            source.append("    return helper").append(Math.max(i - 1, 0)).append("(total, 12345678901234567890, text);\n");
+            source.append("}\n");
+        }
+        source.append("var result = helper").append(functions - 1).append("(1, 2.5, \"start\");\n");
+        return source.toString();
+    }
+
+    // Expression-heavy statements: long operator chains over every precedence level,
+    // calls and bare literals, where parsing is mostly expression parsing.
+    static String expressions(int statements) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < statements; i++) {
+            source.append("var v").append(i).append(" = (a + ").append(i)
+                    .append(") * b - c / 2.5 ^ 2 >= f(x, y + 1) and !done or count == 10;\n");
+            source.append("total = total + v").append(i).append(" * 3 - -limit / (scale ^ 2) + g(h(1), \"")
+                    .append(i).append("\");\n");
+            source.append("print ").append(i).append(";\n");
+        }
+        return source.toString();
+    }
+
+    // Blocks that declare nothing share their enclosing scope, so each one declares a
+    // local to put x a scope further away.
+    static String nestedLookup(int depth, int iterations) {
+        StringBuilder source = new StringBuilder("var x = 1;\nvar y = 0;\nvar i = 0;\n");
+        for (int d = 1; d < depth; d++)
+            source.append("{\nvar pad_").append(d).append(" = ").append(d).append(";\n");
+        source.append("while (i < ").append(iterations).append(") { y = x; i = i + 1; }\n");
+        for (int d = 1; d < depth; d++)
+            source.append("}\n");
+        return source.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package newpack.language.interprettest;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerBenchmark {
+    @Param({"100", "1000"})
+    private int functions;
+    private String source;
+
+    @Setup
+    public void setup() {
+        source = Programs.library(functions);
+    }
+
+    @Benchmark
+    public int scanTokens() {
+        return new Scanner(source).scanTokens().size();
+    }
+}
@@ -0,0 +1,32 @@
+package newpack.language.interprettest;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Reads and writes globals from inside a loop nested `depth` blocks deep, so every
+// access walks the Environment chain.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VariableLookupBenchmark {
+    @Param({"1", "8", "32"})
+    private int depth;
+    private List<Stmt> program;
+    private Interpreter interpreter;
+
+    @Setup
+    public void setup() {
+        program = Programs.compile(Programs.nestedLookup(depth, 1000));
+        interpreter = Programs.interpreter();
+    }
+
+    @Benchmark
+    public void lookup() {
+        interpreter.interpret(program);
+    }
+}
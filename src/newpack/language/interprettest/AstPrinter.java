@@ -31,12 +31,30 @@ public class AstPrinter implements Expr.Visitor<String> {
         return parenthesize("group", expr.expression);
     }
 
+    @Override
+    public String visitInlineExpr(Expr.Inline expr) {
+        return parenthesize("inline", expr.body);
+    }
+
+    @Override
+    public String visitParameterExpr(Expr.Parameter expr) {
+        return expr.name.lexeme;
+    }
+
     @Override
     public String visitLiteralExpr(Expr.Literal expr) {
         if (expr.value == null) return "nil";
         return expr.value.toString();
     }
 
+    @Override
+    public String visitMapLiteralExpr(Expr.MapLiteral expr) {
+        StringBuilder builder = new StringBuilder("(map");
+        for (int i = 0; i < expr.keys.size(); i++)
+            builder.append(" ").append(parenthesize(expr.keys.get(i).accept(this), expr.values.get(i)));
+        return builder.append(")").toString();
+    }
+
     @Override
     public String visitUnaryExpr(Expr.Unary expr) {
         return parenthesize(expr.operator.lexeme, expr.right);
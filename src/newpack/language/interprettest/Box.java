@@ -0,0 +1,18 @@
+package newpack.language.interprettest;
+
+// Shared cell for a local that a closure captures and that can change after the
+// capture. The declaring environment and every closure hold the same box. A box that
+// a closure created before the declaration ran is UNSET, and lookups skip it until
+// the declaration fills it in.
+final class Box {
+    static final Object UNSET = new Object();
+
+    Object value;
+
+    Box() {
+        this(UNSET);
+    }
+    Box(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,170 @@
+package newpack.language.interprettest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-run execution limits. Statements are only counted as they execute; the limits
+// are checked at loop back-edges and calls, which every unbounded computation has to
+// pass through, and the clock is only read every CLOCK_INTERVAL checks. Exceeding a
+// limit raises a RuntimeError at the loop or call that ran over.
+//
+// The forks of a parallel section count their statements locally and add them to a
+// pool the whole run shares every POOL_BATCH statements, so together they stay within
+// one statement limit, overshooting it by at most a batch each.
+final class Budget {
+    static final long UNLIMITED = Long.MAX_VALUE;
+    private static final int CLOCK_INTERVAL = 1024;
+    private static final int POOL_BATCH = 1024;
+    private static final double BITS_PER_DIGIT = Math.log(10) / Math.log(2);
+
+    private final long maxStatements;
+    private final long timeoutNanos;
+    private final long maxDigits;
+    private final long maxBits;
+    private final long maxDepth;
+
+    long statements;
+    private final AtomicLong pool;
+    private final boolean forked;
+    // The pool's total when this budget last added to it.
+    private long pooled;
+    private long deadline;
+    private int untilClock;
+    private long depth;
+
+    Budget(long maxStatements, long timeoutMillis, long maxDigits, long maxDepth) {
+        this.maxStatements = maxStatements;
+        this.timeoutNanos = timeoutMillis == UNLIMITED ? UNLIMITED : timeoutMillis * 1_000_000;
+        this.maxDigits = maxDigits;
+        this.maxBits = maxDigits == UNLIMITED ? UNLIMITED : (long) Math.ceil(maxDigits * BITS_PER_DIGIT);
+        this.maxDepth = maxDepth;
+        this.pool = new AtomicLong();
+        this.forked = false;
+    }
+
+    // The budget of a parallel task: the same limits, deadline and pool, and its own
+    // counts starting from where the forking interpreter is.
+    private Budget(Budget parent) {
+        this.maxStatements = parent.maxStatements;
+        this.timeoutNanos = parent.timeoutNanos;
+        this.maxDigits = parent.maxDigits;
+        this.maxBits = parent.maxBits;
+        this.maxDepth = parent.maxDepth;
+        this.pool = parent.pool;
+        this.forked = true;
+        this.pooled = pool.get();
+        this.deadline = parent.deadline;
+        this.untilClock = CLOCK_INTERVAL;
+        this.depth = parent.depth;
+    }
+    Budget fork() {
+        return new Budget(this);
+    }
+
+    // Called before forking, so the forks start from this budget's count.
+    void share() {
+        if (forked)
+            publish();
+        else
+            pool.set(statements);
+    }
+
+    // Called for every fork once the parallel section is over.
+    void join(Budget fork) {
+        pool.addAndGet(fork.statements);
+        fork.statements = 0;
+        if (forked)
+            pooled = pool.get();
+        else
+            statements = pool.get();
+    }
+
+    private void publish() {
+        pooled = pool.addAndGet(statements);
+        statements = 0;
+    }
+
+    // Called at the start of every run, so a REPL gets a fresh budget per line.
+    void start() {
+        statements = 0;
+        pooled = 0;
+        pool.set(0);
+        depth = 0;
+        untilClock = CLOCK_INTERVAL;
+        deadline = timeoutNanos == UNLIMITED ? 0 : System.nanoTime() + timeoutNanos;
+    }
+
+    void check(Token token) {
+        String exceeded = exceeded();
+        if (exceeded != null)
+            throw new RuntimeError(token, exceeded);
+    }
+
+    // For natives that call script functions in a loop of their own.
+    void check() {
+        String exceeded = exceeded();
+        if (exceeded != null)
+            throw new NativeError(exceeded);
+    }
+
+    private String exceeded() {
+        if (forked && statements >= POOL_BATCH)
+            publish();
+        if (statements + pooled > maxStatements)
+            return "Statement limit of " + maxStatements + " exceeded.";
+        if (--untilClock > 0)
+            return null;
+        untilClock = CLOCK_INTERVAL;
+        if (timeoutNanos != UNLIMITED && System.nanoTime() - deadline > 0)
+            return "Time limit of " + timeoutNanos / 1_000_000 + " ms exceeded.";
+        return null;
+    }
+
+    void enter(Token paren) {
+        if (++depth > maxDepth) {
+            depth--;
+            throw new RuntimeError(paren, "Call depth limit of " + maxDepth + " exceeded.");
+        }
+        check(paren);
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    // Bit length is exact to within a digit and does not have to render the number.
+    void checkDigits(Token operator, Object value) {
+        if (bits(value) > maxBits)
+            throw new RuntimeError(operator, digitsMessage());
+    }
+
+    // Natives check their results too, and those that build large numbers check a
+    // lower bound of the result's bits before they start, so a limit stops them before
+    // the work rather than after it. Both fail as natives do, with a NativeError.
+    void checkDigits(Object value) {
+        checkBits(bits(value));
+    }
+    void checkBits(double bits) {
+        if (bits > maxBits)
+            throw new NativeError(digitsMessage());
+    }
+
+    // For natives that run long without passing a loop or call of the script.
+    void checkTime() {
+        if (timeoutNanos != UNLIMITED && System.nanoTime() - deadline > 0)
+            throw new NativeError("Time limit of " + timeoutNanos / 1_000_000 + " ms exceeded.");
+    }
+
+    private static long bits(Object value) {
+        if (value instanceof BigInteger)
+            return ((BigInteger) value).bitLength();
+        if (value instanceof BigDecimal)
+            return ((BigDecimal) value).unscaledValue().bitLength();
+        return 0;
+    }
+
+    private String digitsMessage() {
+        return "Number exceeds the limit of " + maxDigits + " digits.";
+    }
+}
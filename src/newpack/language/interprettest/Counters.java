@@ -0,0 +1,59 @@
+package newpack.language.interprettest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// Always-on counters, one set per interpreter. They are plain fields updated by the
+// interpreter's own thread; readers such as the periodic JFR event tolerate stale
+// values rather than making every increment pay for synchronization.
+final class Counters {
+    private static final Set<Counters> live = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    long lookups;
+    long assignments;
+    long calls;
+    long integers;
+    long decimals;
+    long strings;
+    long maps;
+    long functions;
+
+    Counters() {
+        live.add(this);
+    }
+
+    void allocated(Object value) {
+        if (value instanceof BigInteger)
+            integers++;
+        else if (value instanceof BigDecimal || value instanceof Decimal)
+            decimals++;
+        else if (value instanceof CharSequence)
+            strings++;
+    }
+
+    // Folds in the counts of a forked interpreter that has finished. They are no longer
+    // reported on their own, or readers would count them twice.
+    void add(Counters other) {
+        live.remove(other);
+        lookups += other.lookups;
+        assignments += other.assignments;
+        calls += other.calls;
+        integers += other.integers;
+        decimals += other.decimals;
+        strings += other.strings;
+        maps += other.maps;
+        functions += other.functions;
+    }
+
+    static List<Counters> all() {
+        synchronized (live) {
+            return new ArrayList<>(live);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package newpack.language.interprettest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+@Name("newpack.language.Counters")
+@Label("Interpreter Counters")
+@Description("Totals of the always-on counters across all live interpreters")
+@Category("Interpreter")
+@Period("1 s")
+@StackTrace(false)
+final class CountersEvent extends jdk.jfr.Event {
+    @Label("Environment Lookups")
+    long lookups;
+
+    @Label("Environment Assignments")
+    long assignments;
+
+    @Label("Calls")
+    long calls;
+
+    @Label("Integers Allocated")
+    long integers;
+
+    @Label("Decimals Allocated")
+    long decimals;
+
+    @Label("Strings Allocated")
+    long strings;
+
+    @Label("Maps Allocated")
+    long maps;
+
+    @Label("Functions Allocated")
+    long functions;
+
+    private static boolean registered = false;
+
+    static synchronized void register() {
+        if (registered)
+            return;
+        registered = true;
+        FlightRecorder.addPeriodicEvent(CountersEvent.class, () -> {
+            CountersEvent event = new CountersEvent();
+            for (Counters counters : Counters.all()) {
+                event.lookups += counters.lookups;
+                event.assignments += counters.assignments;
+                event.calls += counters.calls;
+                event.integers += counters.integers;
+                event.decimals += counters.decimals;
+                event.strings += counters.strings;
+                event.maps += counters.maps;
+                event.functions += counters.functions;
+            }
+            event.commit();
+        });
+    }
+}
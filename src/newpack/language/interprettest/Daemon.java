@@ -0,0 +1,174 @@
+package newpack.language.interprettest;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// A resident interpreter listening on a Unix domain socket, so short scripts do not
+// pay for JVM startup and a cold JIT on every run. Each connection is one run: the
+// client sends its options and the script source, and gets back stdout and stderr
+// frames followed by the exit code. Every run has its own Interpreter, Diagnostics
+// and globals; only the compiled programs are shared, through ProgramCache.
+//
+// Request:  int count, count option strings (writeUTF), int length, source bytes.
+// Response: frames of byte tag, int length, payload; the last is EXIT with an int.
+final class Daemon {
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    private Daemon() {
+    }
+
+    static void serve(Path socket, long stackSize) throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+        if (Files.exists(socket)) {
+            if (listening(address))
+                throw new IOException("A daemon is already listening on " + socket);
+            Files.delete(socket);
+        }
+        ExecutorService sessions = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(null, task, "session", stackSize);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) {
+                }
+            }));
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+            System.err.println("Listening on " + socket);
+            while (true) {
+                SocketChannel client = server.accept();
+                sessions.execute(() -> session(client));
+            }
+        }
+    }
+
+    private static boolean listening(UnixDomainSocketAddress address) {
+        try {
+            SocketChannel.open(address).close();
+            return true;
+        } catch (IOException stale) {
+            return false;
+        }
+    }
+
+    private static void session(SocketChannel client) {
+        try (client) {
+            Frames frames = new Frames(client);
+            int status;
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+                String[] args = new String[in.readInt()];
+                for (int i = 0; i < args.length; i++)
+                    args[i] = in.readUTF();
+                byte[] source = new byte[in.readInt()];
+                in.readFully(source);
+                status = run(args, source, frames);
+            } catch (IOException | UncheckedIOException disconnected) {
+                throw disconnected;
+            } catch (Throwable failure) {
+                // A failure inside the interpreter ends this run only. The client gets
+                // the trace a local run would have printed, and the daemon keeps one.
+                StringWriter trace = new StringWriter();
+                failure.printStackTrace(new PrintWriter(trace));
+                System.err.print(trace);
+                frames.write(STDERR, ByteBuffer.wrap(trace.toString().getBytes(Charset.defaultCharset())));
+                status = 70;
+            }
+            frames.write(EXIT, ByteBuffer.allocate(4).putInt(0, status));
+        } catch (IOException | UncheckedIOException disconnected) {
+            // The client went away; there is nobody left to report to.
+        }
+    }
+
+    private static int run(String[] args, byte[] source, Frames frames) {
+        PrintStream err = new PrintStream(Channels.newOutputStream(frames.channel(STDERR)), true, Charset.defaultCharset());
+        Options options = new Options();
+        for (String arg : args) {
+            if (!options.parse(arg) || options.outputPath != null || options.profilePath != null
+                    || arg.startsWith("--stack-size=")) {
+                err.println("In use [--flush=exit|size|newline] [--max-statements=n] [--timeout=ms]"
+                        + " [--max-digits=n] [--max-depth=n] [--huge-digits=n] [--huge-threads=n]"
+                        + " [--module-path=dirs] [--directory=dir] [--lazy-functions] [script]");
+                return 64;
+            }
+        }
+        Diagnostics diagnostics = new Diagnostics(err);
+        List<Stmt> statements = ProgramCache.compile(source, options.lazyFunctions, diagnostics);
+        if (statements == null)
+            return diagnostics.exitCode();
+        Output output = new Output(frames.channel(STDOUT), Charset.defaultCharset(),
+                options.flushPolicy(Output.FlushPolicy.ON_SIZE), Output.DEFAULT_BUFFER_SIZE);
+        Interpreter interpreter = options.interpreter(output, diagnostics);
+        try {
+            interpreter.interpret(statements);
+        } finally {
+            interpreter.files.closeAll();
+            output.flush();
+        }
+        return diagnostics.exitCode();
+    }
+
+    // Interleaves stdout and stderr on the one connection.
+    private static final class Frames {
+        private final SocketChannel client;
+        private final ByteBuffer header = ByteBuffer.allocate(5);
+
+        Frames(SocketChannel client) {
+            this.client = client;
+        }
+
+        synchronized void write(byte tag, ByteBuffer payload) throws IOException {
+            header.clear();
+            header.put(tag).putInt(payload.remaining()).flip();
+            while (header.hasRemaining())
+                client.write(header);
+            while (payload.hasRemaining())
+                client.write(payload);
+        }
+
+        WritableByteChannel channel(byte tag) {
+            return new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer source) throws IOException {
+                    int length = source.remaining();
+                    Frames.this.write(tag, source);
+                    return length;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return client.isOpen();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
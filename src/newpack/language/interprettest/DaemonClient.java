@@ -0,0 +1,86 @@
+package newpack.language.interprettest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// The client side of Daemon. It reads the script itself (or stdin when no script is
+// given), so the daemon only ever runs what it was sent, and returns the exit code
+// the script would have exited with locally.
+final class DaemonClient {
+    private DaemonClient() {
+    }
+
+    static int run(Path socket, String[] args) throws IOException {
+        List<String> options = new ArrayList<>();
+        String script = null;
+        for (String arg : args) {
+            if (arg.startsWith("--"))
+                options.add(arg);
+            else if (script == null)
+                script = arg;
+            else
+                return usage();
+        }
+        byte[] source = script != null ? Files.readAllBytes(Paths.get(script)) : System.in.readAllBytes();
+        // The daemon reads imported modules itself, starting next to the script, and
+        // opens the files the script names relative to the client's directory.
+        Path directory = script != null ? Paths.get(script).toAbsolutePath().getParent() : Paths.get("").toAbsolutePath();
+        options.add(0, "--module-path=" + directory);
+        options.add(1, "--directory=" + Paths.get("").toAbsolutePath());
+        try (SocketChannel daemon = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(daemon)));
+            out.writeInt(options.size());
+            for (String option : options)
+                out.writeUTF(option);
+            out.writeInt(source.length);
+            out.write(source);
+            out.flush();
+            return receive(new DataInputStream(new BufferedInputStream(Channels.newInputStream(daemon))));
+        }
+    }
+
+    private static int receive(DataInputStream in) throws IOException {
+        OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+        OutputStream stderr = new FileOutputStream(FileDescriptor.err);
+        byte[] buffer = new byte[Output.DEFAULT_BUFFER_SIZE];
+        try {
+            while (true) {
+                byte tag = in.readByte();
+                int length = in.readInt();
+                if (tag == Daemon.EXIT)
+                    return in.readInt();
+                OutputStream target = tag == Daemon.STDOUT ? stdout : stderr;
+                while (length > 0) {
+                    int read = in.read(buffer, 0, Math.min(length, buffer.length));
+                    if (read < 0)
+                        throw new EOFException();
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+            }
+        } catch (EOFException closed) {
+            System.err.println("The daemon closed the connection before the script finished");
+            return 70;
+        }
+    }
+
+    private static int usage() {
+        System.out.println("In use --connect=socket [options] [script]");
+        return 64;
+    }
+}
@@ -0,0 +1,154 @@
+package newpack.language.interprettest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+// Compact decimal: an unscaled long and a scale, for the short decimals most scripts
+// use (prices, ratios). It follows BigDecimal's rules for the result scale, equality
+// and printing, so a value prints and compares the same whichever form it is in.
+// Operations that overflow a long or grow the scale past MAX_SCALE return null and
+// the interpreter redoes them on BigDecimal.
+final class Decimal {
+    static final int MAX_SCALE = 18;
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L,
+            1_000_000_000L, 10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L,
+            10_000_000_000_000L, 100_000_000_000_000L, 1_000_000_000_000_000L,
+            10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L
+    };
+
+    final long unscaled;
+    final int scale;
+
+    private Decimal(long unscaled, int scale) {
+        this.unscaled = unscaled;
+        this.scale = scale;
+    }
+
+    // The compact form of a BigDecimal when it fits, otherwise the BigDecimal itself.
+    static Object of(BigDecimal value) {
+        int scale = value.scale();
+        if (scale < 0 || scale > MAX_SCALE)
+            return value;
+        BigInteger unscaled = value.unscaledValue();
+        if (unscaled.bitLength() > 62)
+            return value;
+        return new Decimal(unscaled.longValue(), scale);
+    }
+
+    // The same value as of(BigDecimal.valueOf(unscaled, scale)), without building it.
+    static Object of(long unscaled, int scale) {
+        if (scale < 0 || scale > MAX_SCALE || unscaled >= 1L << 62 || unscaled < -(1L << 62))
+            return BigDecimal.valueOf(unscaled, scale);
+        return new Decimal(unscaled, scale);
+    }
+
+    static Object widen(Object value) {
+        return value instanceof Decimal ? ((Decimal) value).toBigDecimal() : value;
+    }
+
+    BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    // Handles the operators with a compact result when at least one side is a Decimal
+    // and the other is a Decimal or an integer that fits in a long. Returns null for
+    // everything else, including any overflow.
+    static Object operate(TokenType operator, Object left, Object right) {
+        long a;
+        int leftScale;
+        if (left instanceof Decimal) {
+            a = ((Decimal) left).unscaled;
+            leftScale = ((Decimal) left).scale;
+        } else if (left instanceof BigInteger && ((BigInteger) left).bitLength() <= 62) {
+            a = ((BigInteger) left).longValue();
+            leftScale = 0;
+        } else {
+            return null;
+        }
+        long b;
+        int rightScale;
+        if (right instanceof Decimal) {
+            b = ((Decimal) right).unscaled;
+            rightScale = ((Decimal) right).scale;
+        } else if (right instanceof BigInteger && ((BigInteger) right).bitLength() <= 62) {
+            b = ((BigInteger) right).longValue();
+            rightScale = 0;
+        } else {
+            return null;
+        }
+        try {
+            if (operator == TokenType.STAR) {
+                if (leftScale + rightScale > MAX_SCALE)
+                    return null;
+                return make(Math.multiplyExact(a, b), leftScale + rightScale);
+            }
+            int scale = Math.max(leftScale, rightScale);
+            long x = Math.multiplyExact(a, POWERS_OF_TEN[scale - leftScale]);
+            long y = Math.multiplyExact(b, POWERS_OF_TEN[scale - rightScale]);
+            switch (operator) {
+                case PLUS: return make(Math.addExact(x, y), scale);
+                case MINUS: return make(Math.subtractExact(x, y), scale);
+                case GREATER: return x > y;
+                case GREATER_EQUAL: return x >= y;
+                case LESS: return x < y;
+                case LESS_EQUAL: return x <= y;
+                case EQUAL: return equal(x == y, left, right);
+                case BANG_EQUAL: return !equal(x == y, left, right);
+                default: return null;
+            }
+        } catch (ArithmeticException overflow) {
+            return null;
+        }
+    }
+
+    // Two BigDecimals are only equal with the same scale; against an integer,
+    // checkequality compares values.
+    private static boolean equal(boolean sameValue, Object left, Object right) {
+        if (left instanceof Decimal && right instanceof Decimal)
+            return left.equals(right);
+        return sameValue;
+    }
+
+    private static Decimal make(long unscaled, int scale) {
+        if (unscaled == Long.MIN_VALUE)
+            throw new ArithmeticException();
+        return new Decimal(unscaled, scale);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Decimal))
+            return false;
+        return unscaled == ((Decimal) other).unscaled && scale == ((Decimal) other).scale;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(unscaled) + scale;
+    }
+
+    // Same layout as BigDecimal.toString for the plain cases; scientific notation
+    // is left to BigDecimal.
+    @Override
+    public String toString() {
+        if (scale == 0)
+            return Long.toString(unscaled);
+        String digits = Long.toString(Math.abs(unscaled));
+        int adjusted = digits.length() - 1 - scale;
+        if (adjusted < -6)
+            return toBigDecimal().toString();
+        StringBuilder text = new StringBuilder(digits.length() + 3);
+        if (unscaled < 0)
+            text.append('-');
+        if (digits.length() > scale) {
+            text.append(digits, 0, digits.length() - scale).append('.').append(digits, digits.length() - scale, digits.length());
+        } else {
+            text.append("0.");
+            for (int i = digits.length(); i < scale; i++)
+                text.append('0');
+            text.append(digits);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package newpack.language.interprettest;
+
+import java.io.PrintStream;
+
+// Where one run reports its syntax and runtime errors, and whether it had any. The
+// command line has one for the whole process; the daemon makes one per request.
+class Diagnostics {
+    final PrintStream err;
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    Diagnostics(PrintStream err) {
+        this.err = err;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF)
+            report(token.line, " at end ", message);
+        else
+            report(token.line, " at '" + token.lexeme + "' ", message);
+    }
+    private void report(int line, String location, String message) {
+        err.println("[line : " + line + "] Error" + location + ": " + message);
+        hadError = true;
+    }
+    void runtimeError(RuntimeError error) {
+        Telemetry.runtimeError(error);
+        err.println(error.getMessage() + "\n[line : " + error.token.line);
+        hadRuntimeError = true;
+    }
+
+    // 65 for a syntax error and 70 for a runtime error, as the command line exits.
+    int exitCode() {
+        if (hadError)
+            return 65;
+        if (hadRuntimeError)
+            return 70;
+        return 0;
+    }
+}
@@ -2,28 +2,57 @@ package newpack.language.interprettest;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 public class Environment {
     private final Environment enclosing;
+    private final Map<String, Object> values;
     Environment() {
         enclosing = null;
+        values = new HashMap<>();
     }
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        values = new HashMap<>();
+    }
+    // Sized for the number of locals the resolver counted, so small scopes do not
+    // allocate the default sixteen-slot table.
+    Environment(Environment enclosing, int locals) {
+        this.enclosing = enclosing;
+        values = locals > 0 ? new HashMap<>((int) (locals / 0.75f) + 1) : new HashMap<>();
     }
-    private final Map<String, Object> values = new HashMap<>();
     void define(String name, Object value) {
         values.put(name, value);
     }
+    void defineBoxed(String name, Object value) {
+        Object existing = values.get(name);
+        if (existing instanceof Box)
+            ((Box) existing).value = value;
+        else
+            values.put(name, new Box(value));
+    }
     Object get(Token name) {
-        if (values.containsKey(name.lexeme))
-            return values.get(name.lexeme);
+        Object value = values.get(name.lexeme);
+        if (value instanceof Box) {
+            value = ((Box) value).value;
+            if (value != Box.UNSET)
+                return value;
+        } else if (value != null || values.containsKey(name.lexeme)) {
+            return value;
+        }
         if (enclosing != null)
             return enclosing.get(name);
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "' ");
     }
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
+        Object existing = values.get(name.lexeme);
+        if (existing instanceof Box) {
+            Box box = (Box) existing;
+            if (box.value != Box.UNSET) {
+                box.value = value;
+                return;
+            }
+        } else if (existing != null || values.containsKey(name.lexeme)) {
             values.put(name.lexeme, value);
             return;
         }
@@ -33,4 +62,32 @@ public class Environment {
         }
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme +"'");
     }
+
+    // The names and values of this scope only.
+    void forEach(BiConsumer<String, Object> action) {
+        values.forEach((name, value) -> action.accept(name, value instanceof Box ? ((Box) value).value : value));
+    }
+
+    // This scope only, without unwrapping boxes; used to notice a loop body storing
+    // into the induction variable.
+    Object local(String name) {
+        return values.get(name);
+    }
+
+    Environment ancestor(int distance) {
+        Environment environment = this;
+        for (int i = 0; i < distance; i++)
+            environment = environment.enclosing;
+        return environment;
+    }
+    // The raw slot a closure copies: the value itself, or the box for boxed locals.
+    // A local that is not declared yet gets an UNSET box its declaration will fill.
+    Object capture(String name) {
+        Object value = values.get(name);
+        if (value == null && !values.containsKey(name)) {
+            value = new Box();
+            values.put(name, value);
+        }
+        return value;
+    }
 }
@@ -8,8 +8,11 @@ interface Visitor<R> {
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
     R visitGroupingExpr(Grouping expr);
+    R visitInlineExpr(Inline expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
+    R visitMapLiteralExpr(MapLiteral expr);
+    R visitParameterExpr(Parameter expr);
     R visitUnaryExpr(Unary expr);
     R visitVariableExpr(Variable expr);
     }
@@ -40,6 +43,7 @@ interface Visitor<R> {
     final Expr left;
     final Token operator;
     final Expr right;
+    int operands;
     }
  static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -67,6 +71,21 @@ interface Visitor<R> {
     }
     final Expr expression;
     }
+ static class Inline extends Expr {
+    Inline(Token paren, List<Expr> arguments, Expr body) {
+    this.paren = paren;
+    this.arguments = arguments;
+    this.body = body;
+    }
+
+    @Override
+ <R> R accept(Visitor<R> visitor) {
+    return visitor.visitInlineExpr(this);
+    }
+    final Token paren;
+    final List<Expr> arguments;
+    final Expr body;
+    }
  static class Literal extends Expr {
     Literal(Object value) {
     this.value = value;
@@ -93,6 +112,34 @@ interface Visitor<R> {
     final Token operator;
     final Expr right;
     }
+ static class MapLiteral extends Expr {
+    MapLiteral(Token brace, List<Expr> keys, List<Expr> values) {
+    this.brace = brace;
+    this.keys = keys;
+    this.values = values;
+    }
+
+    @Override
+ <R> R accept(Visitor<R> visitor) {
+    return visitor.visitMapLiteralExpr(this);
+    }
+    final Token brace;
+    final List<Expr> keys;
+    final List<Expr> values;
+    }
+ static class Parameter extends Expr {
+    Parameter(Token name, int slot) {
+    this.name = name;
+    this.slot = slot;
+    }
+
+    @Override
+ <R> R accept(Visitor<R> visitor) {
+    return visitor.visitParameterExpr(this);
+    }
+    final Token name;
+    final int slot;
+    }
  static class Unary extends Expr {
     Unary(Token operator, Expr right) {
     this.operator = operator;
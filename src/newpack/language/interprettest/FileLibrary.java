@@ -0,0 +1,386 @@
+package newpack.language.interprettest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Files scripts read and write. fileOpen(path) gives a reader whose fileReadLine(reader)
+// returns the next line, without its line break, or none at the end, and whose
+// fileReadNumber(reader, column) returns the number in the given column of the next
+// line, counting from 0. Columns are separated by spaces, tabs or commas, and numbers
+// are written as in scripts, with an optional sign. fileEachLine(path, function) and
+// fileEachNumber(path, column, function) call function for every line or number of a
+// file and close it afterwards. fileCreate(path) gives a writer for fileWrite(writer,
+// value) and fileWriteLine(writer, value), and fileClose(file) closes either kind.
+//
+// A reader maps a window of the file at a time and finds lines in the mapped bytes, so
+// however large the file, memory holds one window. Numbers are parsed from the bytes
+// themselves; only lines the script asks for as text become Strings. Writers buffer
+// like the standard output does. Files still open when the run ends are closed then.
+class FileLibrary {
+    private static final int WINDOW = 1 << 26;
+    // A long holds any 18 digits.
+    private static final int LONG_DIGITS = 18;
+    private static final BigInteger LONG_DIGITS_POWER = BigInteger.TEN.pow(LONG_DIGITS);
+
+    static void define(Environment globals) {
+        globals.define("fileOpen", new NativeFunction("fileOpen", 1,
+                (interpreter, arguments) -> interpreter.files.add(new Reader(path(interpreter, arguments, "fileOpen")))));
+        globals.define("fileReadLine", new NativeFunction("fileReadLine", 1,
+                (interpreter, arguments) -> reader(arguments, "fileReadLine").readLine()));
+        globals.define("fileReadNumber", new NativeFunction("fileReadNumber", 2, (interpreter, arguments) -> {
+            Reader reader = reader(arguments, "fileReadNumber");
+            return reader.readNumber(column(arguments, "fileReadNumber"));
+        }));
+        globals.define("fileEachLine", new NativeFunction("fileEachLine", 2, (interpreter, arguments) -> {
+            Path path = path(interpreter, arguments, "fileEachLine");
+            LanguageCallable callback = callback(arguments.get(1), "fileEachLine");
+            Reader reader = interpreter.files.add(new Reader(path));
+            try {
+                for (String line = reader.readLine(); line != null; line = reader.readLine())
+                    each(interpreter, callback, line);
+            } finally {
+                interpreter.files.close(reader);
+            }
+            return null;
+        }));
+        globals.define("fileEachNumber", new NativeFunction("fileEachNumber", 3, (interpreter, arguments) -> {
+            Path path = path(interpreter, arguments, "fileEachNumber");
+            int column = column(arguments, "fileEachNumber");
+            LanguageCallable callback = callback(arguments.get(2), "fileEachNumber");
+            Reader reader = interpreter.files.add(new Reader(path));
+            try {
+                for (Object number = reader.readNumber(column); number != null; number = reader.readNumber(column))
+                    each(interpreter, callback, number);
+            } finally {
+                interpreter.files.close(reader);
+            }
+            return null;
+        }));
+        globals.define("fileCreate", new NativeFunction("fileCreate", 1,
+                (interpreter, arguments) -> interpreter.files.add(new Writer(path(interpreter, arguments, "fileCreate")))));
+        globals.define("fileWrite", new NativeFunction("fileWrite", 2, (interpreter, arguments) -> {
+            writer(arguments, "fileWrite").write(interpreter, arguments.get(1), false);
+            return null;
+        }));
+        globals.define("fileWriteLine", new NativeFunction("fileWriteLine", 2, (interpreter, arguments) -> {
+            writer(arguments, "fileWriteLine").write(interpreter, arguments.get(1), true);
+            return null;
+        }));
+        globals.define("fileClose", new NativeFunction("fileClose", 1, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof Reader || arguments.get(0) instanceof Writer))
+                throw new NativeError("Argument to fileClose must be a file.");
+            interpreter.files.close((Closeable) arguments.get(0));
+            return null;
+        }));
+    }
+
+    private static Path path(Interpreter interpreter, List<Object> arguments, String function) {
+        if (!Rope.isString(arguments.get(0)))
+            throw new NativeError("First argument to " + function + " must be a path.");
+        return interpreter.directory.resolve(arguments.get(0).toString());
+    }
+
+    private static int column(List<Object> arguments, String function) {
+        Object column = arguments.get(1);
+        if (!(column instanceof BigInteger) || ((BigInteger) column).signum() < 0 || ((BigInteger) column).bitLength() > 31)
+            throw new NativeError("Second argument to " + function + " must be a column number.");
+        return ((BigInteger) column).intValue();
+    }
+
+    private static LanguageCallable callback(Object value, String function) {
+        if (!(value instanceof LanguageCallable) || ((LanguageCallable) value).arity() != 1)
+            throw new NativeError("Last argument to " + function + " must be a function taking one argument.");
+        return (LanguageCallable) value;
+    }
+
+    // The loop over a file is the script's loop too, so the run's limits are checked
+    // on every line, however little the callback does.
+    private static void each(Interpreter interpreter, LanguageCallable callback, Object value) {
+        if (interpreter.budget != null)
+            interpreter.budget.check();
+        callback.call(interpreter, Collections.singletonList(value));
+    }
+
+    private static Reader reader(List<Object> arguments, String function) {
+        if (!(arguments.get(0) instanceof Reader))
+            throw new NativeError("First argument to " + function + " must be a file opened with fileOpen.");
+        return (Reader) arguments.get(0);
+    }
+
+    private static Writer writer(List<Object> arguments, String function) {
+        if (!(arguments.get(0) instanceof Writer))
+            throw new NativeError("First argument to " + function + " must be a file made with fileCreate.");
+        return (Writer) arguments.get(0);
+    }
+
+    // NIO reports a missing file or directory with only its path.
+    private static String reason(IOException error) {
+        if (error instanceof NoSuchFileException)
+            return "no such file or directory.";
+        if (error instanceof AccessDeniedException)
+            return "permission denied.";
+        return error.getMessage();
+    }
+
+    // The files of one run, so those the script leaves open are closed at its end.
+    static final class Open {
+        private final Set<Closeable> files = new LinkedHashSet<>();
+
+        synchronized <T extends Closeable> T add(T file) {
+            files.add(file);
+            return file;
+        }
+
+        void close(Closeable file) {
+            synchronized (this) {
+                files.remove(file);
+            }
+            try {
+                file.close();
+            } catch (IOException | UncheckedIOException error) {
+                throw new NativeError("Cannot close " + file + ": " + error.getMessage());
+            }
+        }
+
+        synchronized void closeAll() {
+            for (Closeable file : files) {
+                try {
+                    file.close();
+                } catch (IOException | UncheckedIOException ignored) {
+                    // The run is over and a write it made is lost; nothing is left to tell.
+                }
+            }
+            files.clear();
+        }
+    }
+
+    static final class Reader implements Closeable {
+        private final Path path;
+        private final Charset charset = Charset.defaultCharset();
+        private FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        // Where the window starts in the file, and the next unread byte in the window.
+        private long windowStart;
+        private int position;
+        // The line last found, as positions in the window.
+        private int lineStart;
+        private int lineEnd;
+        private long lineNumber;
+        private byte[] text = new byte[256];
+
+        Reader(Path path) {
+            this.path = path;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                size = channel.size();
+                map(0, (int) Math.min(size, WINDOW));
+            } catch (IOException error) {
+                try {
+                    if (channel != null)
+                        channel.close();
+                } catch (IOException ignored) {
+                    // Already failing with the error that matters.
+                }
+                throw new NativeError("Cannot open file '" + path + "': " + reason(error));
+            }
+        }
+
+        synchronized String readLine() {
+            if (!nextLine())
+                return null;
+            int length = lineEnd - lineStart;
+            if (text.length < length)
+                text = new byte[Math.max(length, text.length * 2)];
+            window.get(lineStart, text, 0, length);
+            return new String(text, 0, length, charset);
+        }
+
+        synchronized Object readNumber(int column) {
+            if (!nextLine())
+                return null;
+            int i = lineStart;
+            for (int skipped = 0; ; skipped++) {
+                while (i < lineEnd && separator(window.get(i)))
+                    i++;
+                if (i == lineEnd)
+                    throw new NativeError("Line " + lineNumber + " of '" + path + "' has no column " + column + ".");
+                if (skipped == column)
+                    break;
+                while (i < lineEnd && !separator(window.get(i)))
+                    i++;
+            }
+            int end = i;
+            while (end < lineEnd && !separator(window.get(end)))
+                end++;
+            return number(i, end);
+        }
+
+        private static boolean separator(byte b) {
+            return b == ' ' || b == '\t' || b == ',';
+        }
+
+        // Digits go into a long eighteen at a time, and into a BigInteger only when a
+        // number has more of them.
+        private Object number(int start, int end) {
+            int i = start;
+            boolean negative = false;
+            if (i < end && (window.get(i) == '-' || window.get(i) == '+'))
+                negative = window.get(i++) == '-';
+            long chunk = 0;
+            int chunkDigits = 0;
+            BigInteger big = null;
+            int digits = 0;
+            int scale = -1;
+            for (; i < end; i++) {
+                byte b = window.get(i);
+                if (b == '.' && scale < 0 && digits > 0) {
+                    scale = 0;
+                    continue;
+                }
+                if (b < '0' || b > '9')
+                    throw notNumber(start, end);
+                if (chunkDigits == LONG_DIGITS) {
+                    big = big == null ? BigInteger.valueOf(chunk)
+                            : big.multiply(LONG_DIGITS_POWER).add(BigInteger.valueOf(chunk));
+                    chunk = 0;
+                    chunkDigits = 0;
+                }
+                chunk = chunk * 10 + (b - '0');
+                chunkDigits++;
+                digits++;
+                if (scale >= 0)
+                    scale++;
+            }
+            if (digits == 0 || scale == 0)
+                throw notNumber(start, end);
+            if (big == null) {
+                long value = negative ? -chunk : chunk;
+                return scale < 0 ? BigInteger.valueOf(value) : Decimal.of(value, scale);
+            }
+            big = big.multiply(BigInteger.TEN.pow(chunkDigits)).add(BigInteger.valueOf(chunk));
+            if (negative)
+                big = big.negate();
+            return scale < 0 ? big : Decimal.of(new BigDecimal(big, scale));
+        }
+
+        private NativeError notNumber(int start, int end) {
+            byte[] field = new byte[end - start];
+            window.get(start, field);
+            return new NativeError("'" + new String(field, charset) + "' on line " + lineNumber + " of '" + path
+                    + "' is not a number.");
+        }
+
+        // Finds the next line, mapping further into the file as it goes. A line that
+        // runs past the window is mapped again from its start, in a window made
+        // larger if the line needs it.
+        private boolean nextLine() {
+            if (channel == null)
+                throw new NativeError("File '" + path + "' is closed.");
+            int i = position;
+            while (true) {
+                int limit = window.limit();
+                while (i < limit && window.get(i) != '\n')
+                    i++;
+                if (i < limit || windowStart + limit == size)
+                    break;
+                int length = limit - position;
+                long mapped = Math.min(Math.min(size - windowStart - position, Math.max(WINDOW, 2L * length)),
+                        Integer.MAX_VALUE);
+                if (mapped <= length)
+                    throw new NativeError("Line " + (lineNumber + 1) + " of '" + path + "' is too long.");
+                try {
+                    map(windowStart + position, (int) mapped);
+                } catch (IOException error) {
+                    throw new NativeError("Cannot read file '" + path + "': " + error.getMessage());
+                }
+                i = length;
+            }
+            int limit = window.limit();
+            if (i == limit && position == limit)
+                return false;
+            lineStart = position;
+            lineEnd = i > lineStart && window.get(i - 1) == '\r' ? i - 1 : i;
+            position = i < limit ? i + 1 : limit;
+            lineNumber++;
+            return true;
+        }
+
+        private void map(long start, int length) throws IOException {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            windowStart = start;
+            position = 0;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (channel == null)
+                return;
+            channel.close();
+            channel = null;
+            window = null;
+        }
+
+        @Override
+        public String toString() {
+            return "<file " + path + ">";
+        }
+    }
+
+    static final class Writer implements Closeable {
+        private final Path path;
+        private Output output;
+
+        Writer(Path path) {
+            this.path = path;
+            try {
+                output = Output.file(path, Output.FlushPolicy.ON_SIZE);
+            } catch (IOException error) {
+                throw new NativeError("Cannot create file '" + path + "': " + reason(error));
+            }
+        }
+
+        synchronized void write(Interpreter interpreter, Object value, boolean line) {
+            if (output == null)
+                throw new NativeError("File '" + path + "' is closed.");
+            try {
+                if (NumberText.large(value))
+                    NumberText.print(output, value);
+                else
+                    output.print(interpreter.stringify(value));
+                if (line)
+                    output.println("");
+            } catch (UncheckedIOException error) {
+                throw new NativeError("Cannot write file '" + path + "': " + error.getCause().getMessage());
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (output == null)
+                return;
+            Output closing = output;
+            output = null;
+            closing.close();
+        }
+
+        @Override
+        public String toString() {
+            return "<file " + path + ">";
+        }
+    }
+}
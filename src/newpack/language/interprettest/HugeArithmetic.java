@@ -0,0 +1,214 @@
+package newpack.language.interprettest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+// Multiplication and division of operands above a size threshold. Products split into
+// Karatsuba halves whose three sub-products run in parallel, down to a depth that
+// keeps every worker busy; a value multiplied by itself (the same object or an equal
+// one) takes the squaring path throughout. Division multiplies by a Newton-iteration
+// reciprocal, so it runs at the speed of these parallel products, and is then corrected
+// against the exact remainder. That is a few products' worth of work, more than
+// BigInteger's own Burnikel-Ziegler division does, so with a single worker division
+// is left to BigInteger. Results are the same as BigInteger and BigDecimal give.
+final class HugeArithmetic {
+    static final long DEFAULT_DIGITS = 100_000;
+    private static final double BITS_PER_DIGIT = Math.log(10) / Math.log(2);
+    // Below this a split is not worth a task.
+    private static final int SPLIT_BITS = 1 << 16;
+    // Reciprocals this short are computed with one ordinary division.
+    private static final int RECIPROCAL_BITS = 1 << 15;
+    private static final int GUARD_BITS = 32;
+    private static final Map<Integer, ForkJoinPool> POOLS = new HashMap<>();
+
+    static final HugeArithmetic DEFAULT = new HugeArithmetic(DEFAULT_DIGITS, ForkJoinPool.getCommonPoolParallelism());
+
+    private final int thresholdBits;
+    private final ForkJoinPool pool;
+    private final int depth;
+
+    HugeArithmetic(long thresholdDigits, int parallelism) {
+        this.thresholdBits = (int) Math.min(Integer.MAX_VALUE, (long) (thresholdDigits * BITS_PER_DIGIT));
+        this.pool = pool(parallelism);
+        // Each level triples the tasks; go one level beyond one task per worker.
+        int depth = 1;
+        for (long tasks = 3; tasks < parallelism; tasks *= 3)
+            depth++;
+        this.depth = parallelism == 1 ? 0 : depth;
+    }
+
+    // One pool per parallelism, shared by every interpreter that asks for it.
+    private static ForkJoinPool pool(int parallelism) {
+        if (parallelism == ForkJoinPool.getCommonPoolParallelism())
+            return ForkJoinPool.commonPool();
+        synchronized (POOLS) {
+            return POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+        }
+    }
+
+    // Both operands above the threshold, which also rules out dividing by zero.
+    boolean huge(BigInteger left, BigInteger right) {
+        return Math.min(left.bitLength(), right.bitLength()) > thresholdBits;
+    }
+
+    BigInteger multiply(BigInteger left, BigInteger right) {
+        if (left.equals(right))
+            right = left;
+        int sign = left.signum() * right.signum();
+        BigInteger product = right == left ? invoke(new Square(left.abs(), depth))
+                : invoke(new Product(left.abs(), right.abs(), depth));
+        return sign < 0 ? product.negate() : product;
+    }
+
+    BigDecimal multiply(BigDecimal left, BigDecimal right) {
+        return new BigDecimal(multiply(left.unscaledValue(), right.unscaledValue()), left.scale() + right.scale());
+    }
+
+    // Truncates towards zero, as BigInteger.divide does.
+    BigInteger divide(BigInteger left, BigInteger right) {
+        BigInteger[] division = divideAndRemainder(left.abs(), right.abs());
+        return left.signum() * right.signum() < 0 ? division[0].negate() : division[0];
+    }
+
+    // The quotient rounded half-even to Interpreter.DECIMAL_PLACES places, as
+    // the interpreter's BigDecimal division gives it.
+    BigDecimal divide(BigDecimal left, BigDecimal right) {
+        // left / right = a * 10^-ls / (b * 10^-rs), so the scaled quotient is
+        // a * 10^(Interpreter.DECIMAL_PLACES - ls + rs) / b.
+        int shift = Interpreter.DECIMAL_PLACES - left.scale() + right.scale();
+        BigInteger numerator = left.unscaledValue().abs();
+        BigInteger denominator = right.unscaledValue().abs();
+        if (shift >= 0)
+            numerator = numerator.multiply(BigInteger.TEN.pow(shift));
+        else
+            denominator = denominator.multiply(BigInteger.TEN.pow(-shift));
+        BigInteger[] division = divideAndRemainder(numerator, denominator);
+        BigInteger quotient = division[0];
+        int half = division[1].shiftLeft(1).compareTo(denominator);
+        if (half > 0 || half == 0 && quotient.testBit(0))
+            quotient = quotient.add(BigInteger.ONE);
+        if (left.signum() * right.signum() < 0)
+            quotient = quotient.negate();
+        return new BigDecimal(quotient, Interpreter.DECIMAL_PLACES);
+    }
+
+    // Both non-negative. The operands are first cut down to the bits the quotient
+    // depends on, the quotient comes from the reciprocal of the shortened divisor, and
+    // the few units it can be off by are settled against the exact remainder.
+    private BigInteger[] divideAndRemainder(BigInteger dividend, BigInteger divisor) {
+        int quotientBits = dividend.bitLength() - divisor.bitLength() + 1;
+        if (depth == 0 || quotientBits <= thresholdBits || divisor.bitLength() <= thresholdBits)
+            return dividend.divideAndRemainder(divisor);
+        int cut = Math.max(0, divisor.bitLength() - quotientBits - GUARD_BITS);
+        BigInteger shortDividend = dividend.shiftRight(cut);
+        BigInteger shortDivisor = divisor.shiftRight(cut);
+        int precision = quotientBits + GUARD_BITS;
+        BigInteger reciprocal = reciprocal(shortDivisor, precision);
+        // Only the top bits of the dividend reach the quotient's precision.
+        int drop = Math.max(0, shortDividend.bitLength() - quotientBits - 2 * GUARD_BITS);
+        BigInteger quotient = multiply(shortDividend.shiftRight(drop), reciprocal)
+                .shiftRight(shortDivisor.bitLength() + precision - drop);
+        BigInteger remainder = dividend.subtract(multiply(quotient, divisor));
+        while (remainder.signum() < 0) {
+            quotient = quotient.subtract(BigInteger.ONE);
+            remainder = remainder.add(divisor);
+        }
+        while (remainder.compareTo(divisor) >= 0) {
+            quotient = quotient.add(BigInteger.ONE);
+            remainder = remainder.subtract(divisor);
+        }
+        return new BigInteger[] { quotient, remainder };
+    }
+
+    // About 2^(n + precision) / d for an n-bit d, good to within a few units in the
+    // last of its precision + 1 bits. Each Newton step doubles the bits of the one
+    // below it, so only the last step works at full precision.
+    private BigInteger reciprocal(BigInteger d, int precision) {
+        int cut = Math.max(0, d.bitLength() - precision - GUARD_BITS);
+        BigInteger top = d.shiftRight(cut);
+        int bits = top.bitLength();
+        if (precision <= RECIPROCAL_BITS)
+            return BigInteger.ONE.shiftLeft(bits + precision).divide(top);
+        int half = precision / 2 + GUARD_BITS;
+        BigInteger x = reciprocal(d, half).shiftLeft(precision - half);
+        // x += x * (2^(bits + precision) - top * x) / 2^(bits + precision)
+        BigInteger error = BigInteger.ONE.shiftLeft(bits + precision).subtract(multiply(top, x));
+        return x.add(multiply(x, error).shiftRight(bits + precision));
+    }
+
+    private BigInteger invoke(RecursiveTask<BigInteger> task) {
+        return ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool ? task.invoke() : pool.invoke(task);
+    }
+
+    private static BigInteger low(BigInteger value, int bits) {
+        return value.bitLength() <= bits ? value : value.subtract(value.shiftRight(bits).shiftLeft(bits));
+    }
+
+    // x * y = hi * 2^2h + mid * 2^h + lo, with mid = (x1 + x0)(y1 + y0) - hi - lo.
+    // An operand too short to split multiplies the halves of the other one.
+    private static final class Product extends RecursiveTask<BigInteger> {
+        private final BigInteger x;
+        private final BigInteger y;
+        private final int depth;
+
+        Product(BigInteger x, BigInteger y, int depth) {
+            this.x = x;
+            this.y = y;
+            this.depth = depth;
+        }
+
+        @Override
+        protected BigInteger compute() {
+            int h = Math.max(x.bitLength(), y.bitLength()) / 2;
+            if (depth == 0 || Math.min(x.bitLength(), y.bitLength()) < SPLIT_BITS)
+                return x.multiply(y);
+            BigInteger longer = x.bitLength() >= y.bitLength() ? x : y;
+            BigInteger shorter = longer == x ? y : x;
+            if (shorter.bitLength() <= h) {
+                Product high = new Product(longer.shiftRight(h), shorter, depth - 1);
+                Product low = new Product(low(longer, h), shorter, depth - 1);
+                invokeAll(high, low);
+                return high.join().shiftLeft(h).add(low.join());
+            }
+            BigInteger x1 = x.shiftRight(h), x0 = low(x, h);
+            BigInteger y1 = y.shiftRight(h), y0 = low(y, h);
+            Product high = new Product(x1, y1, depth - 1);
+            Product low = new Product(x0, y0, depth - 1);
+            Product middle = new Product(x1.add(x0), y1.add(y0), depth - 1);
+            invokeAll(high, low, middle);
+            return karatsuba(high.join(), middle.join(), low.join(), h);
+        }
+    }
+
+    private static final class Square extends RecursiveTask<BigInteger> {
+        private final BigInteger x;
+        private final int depth;
+
+        Square(BigInteger x, int depth) {
+            this.x = x;
+            this.depth = depth;
+        }
+
+        @Override
+        protected BigInteger compute() {
+            if (depth == 0 || x.bitLength() < SPLIT_BITS)
+                return x.multiply(x);
+            int h = x.bitLength() / 2;
+            BigInteger x1 = x.shiftRight(h), x0 = low(x, h);
+            Square high = new Square(x1, depth - 1);
+            Square low = new Square(x0, depth - 1);
+            Square middle = new Square(x1.add(x0), depth - 1);
+            invokeAll(high, low, middle);
+            return karatsuba(high.join(), middle.join(), low.join(), h);
+        }
+    }
+
+    private static BigInteger karatsuba(BigInteger high, BigInteger middle, BigInteger low, int h) {
+        return high.shiftLeft(2 * h).add(middle.subtract(high).subtract(low).shiftLeft(h)).add(low);
+    }
+}
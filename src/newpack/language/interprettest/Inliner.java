@@ -0,0 +1,511 @@
+package newpack.language.interprettest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Replaces calls of small global functions with their bodies, run between parsing and
+// resolving. A function qualifies when it is declared once at the top level, nothing
+// in the program assigns its name, and its body is a single `return expression;` of at
+// most MAX_NODES nodes that does not refer to the function itself or assign its
+// parameters. A call is inlined when it comes after the declaration in the program,
+// passes as many arguments as the function takes, and neither the function's name nor
+// any global its body uses is shadowed by a local where the call is.
+//
+// The inlined body is an Expr.Inline: the arguments are evaluated in order into a frame
+// of their own and the parameters in the body become Expr.Parameter slots of that frame,
+// so no name in the body can be captured by the caller's variables. Bodies of functions
+// inlined earlier are already expanded, so helpers built from helpers inline
+// completely. The functions themselves stay, for calls that are not inlined.
+class Inliner implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    static final int MAX_NODES = 32;
+
+    private static final class Candidate {
+        final int arity;
+        final Expr body;
+        final Set<String> globals;
+        Candidate(int arity, Expr body, Set<String> globals) {
+            this.arity = arity;
+            this.body = body;
+            this.globals = globals;
+        }
+    }
+
+    private final Map<String, Candidate> candidates = new HashMap<>();
+    // Innermost scope last; the globals are not in it.
+    private final List<Set<String>> locals = new ArrayList<>();
+
+    void inline(List<Stmt> statements) {
+        Set<String> unsafe = new HashSet<>();
+        Set<String> declared = new HashSet<>();
+        Names assigned = new Names();
+        for (Stmt statement : statements) {
+            String name = declaredName(statement);
+            if (name != null && !declared.add(name))
+                unsafe.add(name);
+            assigned.scan(statement);
+        }
+        unsafe.addAll(assigned.assigned);
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i).accept(this);
+            statements.set(i, statement);
+            if (statement instanceof Stmt.Function && !unsafe.contains(((Stmt.Function) statement).name.lexeme))
+                candidate((Stmt.Function) statement);
+        }
+    }
+
+    private static String declaredName(Stmt statement) {
+        if (statement instanceof Stmt.Function)
+            return ((Stmt.Function) statement).name.lexeme;
+        if (statement instanceof Stmt.Var)
+            return ((Stmt.Var) statement).name.lexeme;
+        if (statement instanceof Stmt.Import)
+            return ((Stmt.Import) statement).name.lexeme;
+        return null;
+    }
+
+    private void candidate(Stmt.Function function) {
+        if (function.body == null || function.body.size() != 1 || !(function.body.get(0) instanceof Stmt.Return))
+            return;
+        Expr value = ((Stmt.Return) function.body.get(0)).value;
+        if (value == null)
+            return;
+        Map<String, Integer> slots = new HashMap<>();
+        for (int i = 0; i < function.params.size(); i++)
+            slots.put(function.params.get(i).lexeme, i);
+        Names names = new Names();
+        value.accept(names);
+        if (names.nodes > MAX_NODES || names.used.contains(function.name.lexeme)
+                || !Collections.disjoint(names.assigned, slots.keySet()))
+            return;
+        Set<String> globals = new HashSet<>(names.used);
+        globals.addAll(names.assigned);
+        globals.removeAll(slots.keySet());
+        candidates.put(function.name.lexeme, new Candidate(slots.size(), new Copy(slots).copy(value), globals));
+    }
+
+    private boolean shadowed(String name) {
+        for (Set<String> scope : locals) {
+            if (scope.contains(name))
+                return true;
+        }
+        return false;
+    }
+
+    private static Set<String> declarations(List<Stmt> statements) {
+        Set<String> names = new HashSet<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function)
+                names.add(declaredName(statement));
+        }
+        return names;
+    }
+
+    private Expr rewrite(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+    private Stmt rewrite(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+    private List<Expr> rewrite(List<Expr> exprs) {
+        List<Expr> rewritten = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs)
+            rewritten.add(rewrite(expr));
+        return rewritten;
+    }
+    private void rewriteAll(List<Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++)
+            statements.set(i, rewrite(statements.get(i)));
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        locals.add(declarations(stmt.statements));
+        rewriteAll(stmt.statements);
+        locals.remove(locals.size() - 1);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(rewrite(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        boolean scoped = stmt.initializer instanceof Stmt.Var;
+        if (scoped)
+            locals.add(Collections.singleton(((Stmt.Var) stmt.initializer).name.lexeme));
+        Stmt.For rewritten = new Stmt.For(stmt.keyword, rewrite(stmt.initializer), rewrite(stmt.condition),
+                rewrite(stmt.increment), rewrite(stmt.body));
+        if (scoped)
+            locals.remove(locals.size() - 1);
+        return rewritten;
+    }
+
+    // Deferred bodies are parsed at their first call, after this pass.
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.body == null)
+            return stmt;
+        Set<String> scope = declarations(stmt.body);
+        for (Token param : stmt.params)
+            scope.add(param.lexeme);
+        locals.add(scope);
+        rewriteAll(stmt.body);
+        locals.remove(locals.size() - 1);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        return new Stmt.If(rewrite(stmt.condition), rewrite(stmt.thenBranch), rewrite(stmt.elseBranch));
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(rewrite(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        return new Stmt.Return(stmt.expression, rewrite(stmt.value));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        return new Stmt.Var(stmt.name, rewrite(stmt.initialization));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        return new Stmt.While(stmt.keyword, rewrite(stmt.condition), rewrite(stmt.body));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, rewrite(expr.value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        return new Expr.Binary(rewrite(expr.left), expr.operator, rewrite(expr.right));
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = rewrite(expr.arguments);
+        if (callee instanceof Expr.Variable) {
+            String name = ((Expr.Variable) callee).name.lexeme;
+            Candidate candidate = candidates.get(name);
+            if (candidate != null && candidate.arity == arguments.size() && !shadowed(name)
+                    && candidate.globals.stream().noneMatch(this::shadowed))
+                return new Expr.Inline(expr.paren, arguments, new Copy(Collections.emptyMap()).copy(candidate.body));
+        }
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return new Expr.Grouping(rewrite(expr.expression));
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        return new Expr.Logical(rewrite(expr.left), expr.operator, rewrite(expr.right));
+    }
+
+    @Override
+    public Expr visitMapLiteralExpr(Expr.MapLiteral expr) {
+        return new Expr.MapLiteral(expr.brace, rewrite(expr.keys), rewrite(expr.values));
+    }
+
+    @Override
+    public Expr visitParameterExpr(Expr.Parameter expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        return new Expr.Unary(expr.operator, rewrite(expr.right));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    // A fresh copy of an expression, so the annotations later passes make on one call
+    // site do not apply to another. Variables naming a parameter become its slot; the
+    // bodies of calls inlined before have slots of their own and are copied as they are.
+    private static final class Copy implements Expr.Visitor<Expr> {
+        private final Map<String, Integer> slots;
+        Copy(Map<String, Integer> slots) {
+            this.slots = slots;
+        }
+
+        Expr copy(Expr expr) {
+            return expr.accept(this);
+        }
+        private List<Expr> copy(List<Expr> exprs) {
+            List<Expr> copies = new ArrayList<>(exprs.size());
+            for (Expr expr : exprs)
+                copies.add(copy(expr));
+            return copies;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            return new Expr.Assign(expr.name, copy(expr.value));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            return new Expr.Binary(copy(expr.left), expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            return new Expr.Call(copy(expr.callee), expr.paren, copy(expr.arguments));
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            return new Expr.Grouping(copy(expr.expression));
+        }
+
+        @Override
+        public Expr visitInlineExpr(Expr.Inline expr) {
+            return new Expr.Inline(expr.paren, copy(expr.arguments), new Copy(Collections.emptyMap()).copy(expr.body));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            return new Expr.Logical(copy(expr.left), expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitMapLiteralExpr(Expr.MapLiteral expr) {
+            return new Expr.MapLiteral(expr.brace, copy(expr.keys), copy(expr.values));
+        }
+
+        @Override
+        public Expr visitParameterExpr(Expr.Parameter expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            return new Expr.Unary(expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            Integer slot = slots.get(expr.name.lexeme);
+            return slot == null ? expr : new Expr.Parameter(expr.name, slot);
+        }
+    }
+
+    // The names a tree reads and assigns, and the size of its expressions. Deferred
+    // function bodies are only tokens here, so an identifier followed by '=' counts
+    // as an assignment.
+    private static final class Names implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        final Set<String> used = new HashSet<>();
+        final Set<String> assigned = new HashSet<>();
+        int nodes;
+
+        void scan(Stmt stmt) {
+            if (stmt != null)
+                stmt.accept(this);
+        }
+        private void scan(Expr expr) {
+            if (expr != null)
+                expr.accept(this);
+        }
+        private void scan(List<Expr> exprs) {
+            for (Expr expr : exprs)
+                scan(expr);
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement : stmt.statements)
+                scan(statement);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            scan(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            scan(stmt.initializer);
+            scan(stmt.condition);
+            scan(stmt.increment);
+            scan(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            if (stmt.body != null) {
+                for (Stmt statement : stmt.body)
+                    scan(statement);
+                return null;
+            }
+            List<Token> tokens = stmt.deferred;
+            for (int i = 0; i + 1 < tokens.size(); i++) {
+                if (tokens.get(i).type == TokenType.IDENTIFIER && tokens.get(i + 1).type == TokenType.ASSIGN)
+                    assigned.add(tokens.get(i).lexeme);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            scan(stmt.condition);
+            scan(stmt.thenBranch);
+            scan(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            scan(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            scan(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            scan(stmt.initialization);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            scan(stmt.condition);
+            scan(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            nodes++;
+            assigned.add(expr.name.lexeme);
+            scan(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            nodes++;
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            nodes++;
+            scan(expr.callee);
+            scan(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            nodes++;
+            scan(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitInlineExpr(Expr.Inline expr) {
+            nodes++;
+            scan(expr.arguments);
+            scan(expr.body);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            nodes++;
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+            nodes++;
+            scan(expr.keys);
+            scan(expr.values);
+            return null;
+        }
+
+        @Override
+        public Void visitParameterExpr(Expr.Parameter expr) {
+            nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            nodes++;
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            nodes++;
+            used.add(expr.name.lexeme);
+            return null;
+        }
+    }
+}
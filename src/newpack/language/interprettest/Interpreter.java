@@ -3,12 +3,42 @@ import java.lang.Math;
 import java.util.List;
 import java.math.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
+    // Places a division keeps after the point.
+    static final int DECIMAL_PLACES = 10000;
+    final Environment globals;
+    final Output output;
+    final Diagnostics diagnostics;
+    Profiler profiler = null;
+    Budget budget = null;
+    HugeArithmetic huge = HugeArithmetic.DEFAULT;
+    Modules modules = new Modules(Collections.singletonList(Paths.get("")), false);
+    FileLibrary.Open files = new FileLibrary.Open();
+    // Relative paths given to the file builtins are resolved against it.
+    Path directory = Paths.get("");
+    final Counters counters = new Counters();
+    private Environment environment;
+    // The arguments of the inlined call being evaluated.
+    private Object[] frame;
 
     Interpreter() {
+        this(Output.stdout(Output.FlushPolicy.ON_SIZE));
+    }
+
+    Interpreter(Output output) {
+        this(output, new Diagnostics(System.err));
+    }
+
+    Interpreter(Output output, Diagnostics diagnostics) {
+        this.globals = new Environment();
+        this.environment = globals;
+        this.output = output;
+        this.diagnostics = diagnostics;
+        Telemetry.start();
         globals.define("clock", new LanguageCallable() {
             @Override
             public int arity() {
@@ -20,6 +50,40 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return new BigDecimal((double)System.currentTimeMillis()/1000.0);
             }
         });
+        MapLibrary.define(globals);
+        ParallelLibrary.define(globals);
+        MathLibrary.define(globals);
+        FileLibrary.define(globals);
+    }
+
+    // A fork shares the globals, output and diagnostics but has its own environment,
+    // counters and budget, so it can run script functions on another thread.
+    private Interpreter(Interpreter parent) {
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.output = parent.output;
+        this.diagnostics = parent.diagnostics;
+        this.budget = parent.budget == null ? null : parent.budget.fork();
+        this.huge = parent.huge;
+        this.modules = parent.modules;
+        this.files = parent.files;
+        this.directory = parent.directory;
+    }
+    Interpreter fork() {
+        return new Interpreter(this);
+    }
+
+    // An imported module runs in globals of its own, with the importer's output,
+    // budget, modules and open files, on the importer's thread.
+    Interpreter module() {
+        Interpreter module = new Interpreter(output, diagnostics);
+        module.profiler = profiler;
+        module.budget = budget;
+        module.huge = huge;
+        module.modules = modules;
+        module.files = files;
+        module.directory = directory;
+        return module;
     }
 
     @Override
@@ -40,11 +104,50 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.right);
     }
 
+    @Override
+    public Object visitMapLiteralExpr(Expr.MapLiteral expr) {
+        LanguageMap map = new LanguageMap(expr.keys.size());
+        counters.maps++;
+        for (int i = 0; i < expr.keys.size(); i++) {
+            Object key = evaluate(expr.keys.get(i));
+            try {
+                map.set(key, evaluate(expr.values.get(i)));
+            } catch (NativeError error) {
+                throw new RuntimeError(expr.brace, error.getMessage());
+            }
+        }
+        return map;
+    }
+
     @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
         return evaluate(expr.expression);
     }
 
+    // A call the Inliner replaced with the callee's body. It counts as a call but needs
+    // no environment, argument list or Return.
+    @Override
+    public Object visitInlineExpr(Expr.Inline expr) {
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++)
+            arguments[i] = evaluate(expr.arguments.get(i));
+        if (profiler != null)
+            profiler.call(expr.paren.line);
+        counters.calls++;
+        Object[] caller = frame;
+        frame = arguments;
+        try {
+            return evaluate(expr.body);
+        } finally {
+            frame = caller;
+        }
+    }
+
+    @Override
+    public Object visitParameterExpr(Expr.Parameter expr) {
+        return frame[expr.slot];
+    }
+
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
@@ -61,6 +164,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
+        counters.lookups++;
         return environment.get(expr.name);
     }
 
@@ -72,11 +176,27 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LanguageFunction function = new LanguageFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
+        Environment closure = stmt.captures == null ? environment : closure(stmt.captures);
+        LanguageFunction function = new LanguageFunction(stmt, closure);
+        counters.functions++;
+        if (stmt.boxed)
+            environment.defineBoxed(stmt.name.lexeme, function);
+        else
+            environment.define(stmt.name.lexeme, function);
         return null;
     }
 
+    // Only the captured locals are copied; anything else the function refers to is a
+    // global and is looked up through globals as before.
+    private Environment closure(List<Resolver.Capture> captures) {
+        if (captures.isEmpty())
+            return globals;
+        Environment closure = new Environment(globals, captures.size());
+        for (Resolver.Capture capture : captures)
+            closure.define(capture.name, environment.ancestor(capture.depth).capture(capture.name));
+        return closure;
+    }
+
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
         if (truthify(evaluate(stmt.condition))) {
@@ -88,15 +208,30 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if (profiler != null)
+            profiler.line(stmt.keyword.line);
+        globals.define(stmt.name.lexeme, modules.load(this, stmt.name));
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        if (NumberText.large(value)) {
+            NumberText.print(output, value);
+            output.println("");
+            return null;
+        }
+        output.println(stringify(value));
         return null;
     }
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
+        if (profiler != null)
+            profiler.line(stmt.expression.line);
         Object value = null;
         if (stmt.value != null)
             value = evaluate(stmt.value);
@@ -107,17 +242,164 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Void visitWhileStmt(Stmt.While stmt) {
         while (truthify(evaluate(stmt.condition))) {
             execute(stmt.body);
+            if (budget != null)
+                budget.check(stmt.keyword);
         }
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (!(stmt.initializer instanceof Stmt.Var)) {
+            loop(stmt);
+            return null;
+        }
+        Environment previous = environment;
+        try {
+            environment = new Environment(environment, 1);
+            loop(stmt);
+        } finally {
+            environment = previous;
+        }
+        return null;
+    }
+
+    private void loop(Stmt.For stmt) {
+        if (stmt.initializer != null)
+            execute(stmt.initializer);
+        if (stmt.counted && countedLoop(stmt))
+            return;
+        while (stmt.condition == null || truthify(evaluate(stmt.condition))) {
+            execute(stmt.body);
+            if (stmt.increment != null)
+                evaluate(stmt.increment);
+            if (budget != null)
+                budget.check(stmt.keyword);
+        }
+    }
+
+    // Runs a loop the resolver recognised as `var i = start; i < bound; i = i + step`
+    // with the induction variable in a long. The environment is only written when
+    // the body can see the variable, and a body that stores into it is noticed by
+    // identity. Anything outside the fast path (a non-integer or huge bound or start,
+    // overflow, a store from the body) leaves the current state in the environment
+    // and returns false so the generic loop continues from the next condition check.
+    private boolean countedLoop(Stmt.For stmt) {
+        Token name = ((Stmt.Var) stmt.initializer).name;
+        Expr.Binary condition = (Expr.Binary) stmt.condition;
+        Object start = environment.local(name.lexeme);
+        if (!(start instanceof BigInteger) || ((BigInteger) start).bitLength() > 63)
+            return false;
+        BigInteger stored = (BigInteger) start;
+        long i = stored.longValue();
+        while (true) {
+            Object bound = evaluate(condition.right);
+            if (!(bound instanceof BigInteger) || ((BigInteger) bound).bitLength() > 63) {
+                if (stored.longValue() != i)
+                    environment.define(name.lexeme, BigInteger.valueOf(i));
+                return false;
+            }
+            if (!compare(condition.operator.type, i, ((BigInteger) bound).longValue()))
+                return true;
+            if (stmt.exposed && stored.longValue() != i) {
+                stored = BigInteger.valueOf(i);
+                environment.define(name.lexeme, stored);
+            }
+            if (profiler != null)
+                profiler.line(stmt.keyword.line);
+            execute(stmt.body);
+            if (stmt.exposed && environment.local(name.lexeme) != stored) {
+                evaluate(stmt.increment);
+                if (budget != null)
+                    budget.check(stmt.keyword);
+                return false;
+            }
+            long next = i + stmt.step;
+            if (((i ^ next) & (stmt.step ^ next)) < 0) {
+                environment.define(name.lexeme, BigInteger.valueOf(i).add(BigInteger.valueOf(stmt.step)));
+                if (budget != null)
+                    budget.check(stmt.keyword);
+                return false;
+            }
+            i = next;
+            if (budget != null)
+                budget.check(stmt.keyword);
+        }
+    }
+    private static boolean compare(TokenType operator, long left, long right) {
+        switch (operator) {
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            case GREATER: return left > right;
+            default: return left >= right;
+        }
+    }
+
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
-        switch (expr.operator.type) {
+        if (profiler != null)
+            profiler.line(expr.operator.line);
+        Object result;
+        if (expr.operands == TypeInference.INTEGER)
+            result = integers(expr.operator, (BigInteger) left, (BigInteger) right);
+        else if (expr.operands == TypeInference.STRING && expr.operator.type == TokenType.STAR)
+            result = Rope.concat((CharSequence) left, (CharSequence) right);
+        else
+            result = operate(expr.operator, left, right);
+        if (result instanceof BigDecimal)
+            result = Decimal.of((BigDecimal) result);
+        counters.allocated(result);
+        if (budget != null)
+            budget.checkDigits(expr.operator, result);
+        return result;
+    }
+
+    // Both operands were proven integers ahead of time. Multiplication and division
+    // still go through operate while a recording wants their events.
+    private Object integers(Token operator, BigInteger left, BigInteger right) {
+        switch (operator.type) {
+            case PLUS: return left.add(right);
+            case MINUS: return left.subtract(right);
+            case STAR:
+                if (!Telemetry.enabled)
+                    return huge.huge(left, right) ? huge.multiply(left, right) : left.multiply(right);
+                break;
+            case SLASH:
+                if (!Telemetry.enabled)
+                    return huge.huge(left, right) ? huge.divide(left, right) : left.divide(right);
+                break;
+            case GREATER: return left.compareTo(right) > 0;
+            case GREATER_EQUAL: return left.compareTo(right) >= 0;
+            case LESS: return left.compareTo(right) < 0;
+            case LESS_EQUAL: return left.compareTo(right) <= 0;
+            case EQUAL: return left.equals(right);
+            case BANG_EQUAL: return !left.equals(right);
+        }
+        return operate(operator, left, right);
+    }
+
+    // A binary operator applied outside of any expression, the way the reductions of
+    // parallelRange combine partial results.
+    Object apply(Token operator, Object left, Object right) {
+        Object result = operate(operator, left, right);
+        if (result instanceof BigDecimal)
+            result = Decimal.of((BigDecimal) result);
+        return result;
+    }
+
+    private Object operate(Token operator, Object left, Object right) {
+        if (left instanceof Decimal || right instanceof Decimal) {
+            Object compact = Decimal.operate(operator.type, left, right);
+            if (compact != null)
+                return compact;
+            left = Decimal.widen(left);
+            right = Decimal.widen(right);
+        }
+        switch (operator.type) {
             case MINUS:
-                int operatType = checkIfOperandNumber(expr.operator, left, right);
+                int operatType = checkIfOperandNumber(operator, left, right);
                 switch (operatType){
                     case 0:
                         return ((BigDecimal)left).subtract((BigDecimal)right);
@@ -129,7 +411,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         return ((BigDecimal)left).subtract(new BigDecimal((BigInteger)right));
                 }
             case PLUS:
-                operatType = checkIfOperandNumber(expr.operator, left, right);
+                operatType = checkIfOperandNumber(operator, left, right);
                 switch (operatType){
                     case 0:
                         return ((BigDecimal)left).add((BigDecimal)right);
@@ -141,41 +423,30 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         return ((BigDecimal)left).add(new BigDecimal((BigInteger)right));
                 }
             case STAR:
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return Rope.concat((CharSequence)left, (CharSequence)right);
                 }
-                operatType = checkIfOperandNumber(expr.operator, left, right);
-                switch (operatType){
-                    case 0:
-                        return ((BigDecimal)left).multiply((BigDecimal)right);
-                    case 1:
-                        return ((BigInteger)left).multiply((BigInteger)right);
-                    case 2:
-                        return (new BigDecimal((BigInteger)left).multiply((BigDecimal)right));
-                    case 3:
-                        return ((BigDecimal)left).multiply(new BigDecimal((BigInteger)right));
-                }
-                break;
+                if (!Telemetry.enabled)
+                    return multiply(operator, left, right);
+                Object product = Telemetry.beginNumberOperation();
+                Object multiplied = multiply(operator, left, right);
+                Telemetry.endNumberOperation(product, operator, left, right);
+                return multiplied;
             case SLASH:
-                operatType = checkIfOperandNumber(expr.operator, left, right);
-                switch (operatType){
-                    case 0:
-                        return new BigDecimal(((BigDecimal)left).divide((BigDecimal)right, 10000, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString());
-                    case 1:
-                        return ((BigInteger)left).divide((BigInteger)right);
-                    case 2:
-                        return new BigDecimal((new BigDecimal((BigInteger)left).divide((BigDecimal)right, 10000, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString()));
-                    case 3:
-                        return new BigDecimal(((BigDecimal)left).divide(new BigDecimal((BigInteger)right), 10000, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString());
-                }
+                if (!Telemetry.enabled)
+                    return divide(operator, left, right);
+                Object quotient = Telemetry.beginNumberOperation();
+                Object divided = divide(operator, left, right);
+                Telemetry.endNumberOperation(quotient, operator, left, right);
+                return divided;
             case PERCENT:
-                operatType = checkIfOperandNumber(expr.operator, left, right);
+                operatType = checkIfOperandNumber(operator, left, right);
                 if (operatType == 1) {
                     ((BigInteger)left).mod((BigInteger)right);
                 }
                 return 0.00;
             case EXPON:
-                operatType = checkIfOperandNumber(expr.operator, left, right);
+                operatType = checkIfOperandNumber(operator, left, right);
                 switch (operatType){
                     case 0:
                     case 2:
@@ -184,7 +455,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                         return "infinity";
                 }
             case GREATER:
-                operatType = checkIfOperandNumber(expr.operator, left, right);
+                operatType = checkIfOperandNumber(operator, left, right);
                 int a = 0;
                 switch (operatType){
                     case 0:
@@ -201,7 +472,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
                 return a==1;
             case LESS:
-                operatType = checkIfOperandNumber(expr.operator, left, right);
+                operatType = checkIfOperandNumber(operator, left, right);
                 a = 0;
                 switch (operatType){
                     case 0:
@@ -218,7 +489,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
                 return a==-1;
             case GREATER_EQUAL:
-                operatType = checkIfOperandNumber(expr.operator, left, right);
+                operatType = checkIfOperandNumber(operator, left, right);
                 a = 0;
                 switch (operatType){
                     case 0:
@@ -235,7 +506,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
                 return a==1 || a==0;
             case LESS_EQUAL:
-                operatType = checkIfOperandNumber(expr.operator, left, right);
+                operatType = checkIfOperandNumber(operator, left, right);
                 a = 0;
                 switch (operatType){
                     case 0:
@@ -260,6 +531,42 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    private Object multiply(Token operator, Object left, Object right) {
+        int operatType = checkIfOperandNumber(operator, left, right);
+        if (huge.huge(number(left), number(right)))
+            return operatType == 1 ? huge.multiply((BigInteger)left, (BigInteger)right)
+                    : huge.multiply(decimal(left), decimal(right));
+        switch (operatType){
+            case 0:
+                return ((BigDecimal)left).multiply((BigDecimal)right);
+            case 1:
+                return ((BigInteger)left).multiply((BigInteger)right);
+            case 2:
+                return (new BigDecimal((BigInteger)left).multiply((BigDecimal)right));
+            case 3:
+                return ((BigDecimal)left).multiply(new BigDecimal((BigInteger)right));
+        }
+        return null;
+    }
+
+    private Object divide(Token operator, Object left, Object right) {
+        int operatType = checkIfOperandNumber(operator, left, right);
+        if (huge.huge(number(left), number(right)))
+            return operatType == 1 ? huge.divide((BigInteger)left, (BigInteger)right)
+                    : new BigDecimal(huge.divide(decimal(left), decimal(right)).stripTrailingZeros().toPlainString());
+        switch (operatType){
+            case 0:
+                return new BigDecimal(((BigDecimal)left).divide((BigDecimal)right, DECIMAL_PLACES, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString());
+            case 1:
+                return ((BigInteger)left).divide((BigInteger)right);
+            case 2:
+                return new BigDecimal((new BigDecimal((BigInteger)left).divide((BigDecimal)right, DECIMAL_PLACES, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString()));
+            case 3:
+                return new BigDecimal(((BigDecimal)left).divide(new BigDecimal((BigInteger)right), DECIMAL_PLACES, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString());
+        }
+        return null;
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
@@ -270,6 +577,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (!(callee instanceof LanguageCallable)) {
             throw new RuntimeError(expr.paren, "Can only call functions and classes");
         }
+        if (profiler != null)
+            profiler.call(expr.paren.line);
+        counters.calls++;
 
         LanguageCallable function = (LanguageCallable) callee;
         if (arguments.size() != function.arity()) {
@@ -277,28 +587,54 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     function.arity() + "arguments but got" +
                     arguments.size() + ".");
         }
-        return function.call(this, arguments);
+        if (budget != null)
+            budget.enter(expr.paren);
+        try {
+            return function.call(this, arguments);
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        } catch (StackOverflowError overflow) {
+            // Caught by the innermost call; if building the error overflows again, the
+            // next call out has more room.
+            throw new RuntimeError(expr.paren, "Stack overflow, recursion too deep for the interpreter stack.");
+        } finally {
+            if (budget != null)
+                budget.exit();
+        }
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        if (stmt.scopeless) {
+            for (Stmt statement : stmt.statements)
+                execute(statement);
+            return null;
+        }
+        executeBlock(stmt.statements, new Environment(environment, stmt.locals));
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
+        if (profiler != null)
+            profiler.line(stmt.name.line);
         Object value = null;
         if (stmt.initialization != null) {
             value = evaluate(stmt.initialization);
         }
-        environment.define(stmt.name.lexeme, value);
+        if (stmt.boxed)
+            environment.defineBoxed(stmt.name.lexeme, value);
+        else
+            environment.define(stmt.name.lexeme, value);
         return null;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
+        if (profiler != null)
+            profiler.line(expr.name.line);
+        counters.assignments++;
         environment.assign(expr.name, value);
         return value;
     }
@@ -318,6 +654,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             return true;
         if (a == null || b == null)
             return false;
+        if (a instanceof Rope)
+            a = a.toString();
+        if (b instanceof Rope)
+            b = b.toString();
+        if (a instanceof Decimal && b instanceof Decimal)
+            return a.equals(b);
+        a = Decimal.widen(a);
+        b = Decimal.widen(b);
         if (a instanceof  BigInteger && b instanceof BigDecimal)
             return (new BigDecimal((BigInteger)a).compareTo((BigDecimal)b) == 0);
         if (a instanceof BigDecimal && b instanceof BigInteger)
@@ -329,6 +673,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
+    // The digits of a number operand, without its scale.
+    private static BigInteger number(Object value) {
+        return value instanceof BigInteger ? (BigInteger)value : ((BigDecimal)value).unscaledValue();
+    }
+    private static BigDecimal decimal(Object value) {
+        return value instanceof BigInteger ? new BigDecimal((BigInteger)value) : (BigDecimal)value;
+    }
+
     private int checkIfOperandNumber(Token operator, Object left, Object right) {
         if (left instanceof BigDecimal && right instanceof BigDecimal)
             return 0;
@@ -340,16 +692,35 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             return 3;
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
+    // Runs a module's statements, leaving runtime errors to the import.
+    void run(List<Stmt> statements) {
+        for (Stmt statement : statements)
+            execute(statement);
+    }
     void interpret(List<Stmt> statements) {
+        if (budget != null)
+            budget.start();
         try {
             for (Stmt statement : statements)
                 execute(statement);
         } catch (RuntimeError error) {
-            Language.runtimeError(error);
+            output.flush();
+            diagnostics.runtimeError(error);
         }
     }
     private void execute(Stmt statement) {
-        statement.accept(this);
+        if (budget != null)
+            budget.statements++;
+        if (!Telemetry.enabled) {
+            statement.accept(this);
+            return;
+        }
+        Object event = Telemetry.beginStatement();
+        try {
+            statement.accept(this);
+        } finally {
+            Telemetry.endStatement(event, statement);
+        }
     }
     void executeBlock(List <Stmt> statements, Environment environment) {
         Environment previous = this.environment;
@@ -363,7 +734,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private String stringify(Object object) {
+    String stringify(Object object) {
         if (object == null)
             return "None";
         if (object instanceof Double) {
@@ -7,66 +7,146 @@ import  java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Paths;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
 
 public class Language {
-    static boolean  hadError = false;
-    static boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
+    private static final Options options = new Options();
+    private static final Diagnostics diagnostics = new Diagnostics(System.err);
+    private static Interpreter interpreter;
 
     public static void main(String[] args) throws IOException {
-        if(args.length > 1) {
-            System.out.println("In use [script]");
-            System.exit(64);
-        } else if(args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runFilePrompt();
+        if (args.length > 0 && args[0].startsWith("--daemon=")) {
+            for (int i = 1; i < args.length; i++) {
+                if (!args[i].startsWith("--stack-size=") || !options.parse(args[i])) {
+                    System.out.println("In use --daemon=socket [--stack-size=bytes[k|m|g]]");
+                    System.exit(64);
+                }
+            }
+            Daemon.serve(Paths.get(args[0].substring("--daemon=".length())), options.stackSize);
+            return;
+        }
+        if (args.length > 0 && args[0].startsWith("--connect=")) {
+            System.exit(DaemonClient.run(Paths.get(args[0].substring("--connect=".length())),
+                    Arrays.copyOfRange(args, 1, args.length)));
+        }
+        String script = null;
+        for (String arg : args) {
+            if (arg.startsWith("--") && options.parse(arg))
+                continue;
+            if (script != null || arg.startsWith("--")) {
+                System.out.println(Options.USAGE);
+                System.exit(64);
+            }
+            script = arg;
         }
+        String path = script;
+        onInterpreterThread(() -> {
+            if (path != null) {
+                runFile(path);
+            } else {
+                runFilePrompt();
+            }
+        });
+    }
+
+    private interface Run {
+        void run() throws IOException;
+    }
+    // Scripts run on a thread of their own so that recursion depth is set by
+    // --stack-size rather than by the launcher's main thread.
+    private static void onInterpreterThread(Run run) throws IOException {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                run.run();
+            } catch (Throwable error) {
+                failure[0] = error;
+            }
+        }, "interpreter", options.stackSize);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] instanceof IOException)
+            throw (IOException) failure[0];
+        if (failure[0] instanceof RuntimeException)
+            throw (RuntimeException) failure[0];
+        if (failure[0] instanceof Error)
+            throw (Error) failure[0];
+    }
+    private static Output output(Output.FlushPolicy defaultPolicy) throws IOException {
+        Output.FlushPolicy policy = options.flushPolicy(defaultPolicy);
+        if (options.outputPath != null)
+            return Output.file(Paths.get(options.outputPath), policy);
+        return Output.stdout(policy);
     }
     private static void runFile(String filePath) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(filePath));
-        run(new String(bytes, Charset.defaultCharset()));
-        if(hadError)
-            System.exit(65);
-        if (hadRuntimeError)
-            System.exit(70);
+        // Modules next to the script come first.
+        options.modulePath.add(0, Paths.get(filePath).toAbsolutePath().getParent());
+        interpreter = options.interpreter(output(Output.FlushPolicy.ON_SIZE), diagnostics);
+        if (options.profilePath != null) {
+            interpreter.profiler = new Profiler(1_000_000);
+            interpreter.profiler.start();
+        }
+        try {
+            run(new String(bytes, Charset.defaultCharset()), true);
+        } finally {
+            interpreter.files.closeAll();
+            interpreter.output.flush();
+            if (interpreter.profiler != null) {
+                interpreter.profiler.stop();
+                interpreter.profiler.report(System.err);
+                interpreter.profiler.writeCollapsed(Paths.get(options.profilePath));
+            }
+        }
+        if (diagnostics.exitCode() != 0)
+            System.exit(diagnostics.exitCode());
     }
     private static void runFilePrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
+        interpreter = options.interpreter(output(Output.FlushPolicy.ON_NEWLINE), diagnostics);
         while (true) {
             System.out.println("> ");
             String line = reader.readLine();
             if (line == null)
                 break;
-            run(line);
-            hadError = false;
+            run(line, false);
+            interpreter.output.flush();
+            diagnostics.hadError = false;
         }
+        interpreter.files.closeAll();
     }
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List <Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-        if (hadError)
+    private static void run(String source, boolean inline) {
+        List<Stmt> statements = compile(source, options.lazyFunctions, inline, diagnostics);
+        if (statements == null)
             return;
         interpreter.interpret(statements);
     }
-    static void error(int line, String errorMessage) {
-        reportError(line, "", errorMessage);
-    }
-    private static void reportError(int line, String location, String message) {
-        System.err.println("[line : " + line + "] Error" + location +": "+ message);
-    }
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF)
-            reportError(token.line, " at end ", message);
-        else
-            reportError(token.line, " at '" + token.lexeme + "' ", message);
+
+    // Scans, parses, inlines and resolves a script. Returns null if it has a syntax error,
+    // which has been reported to the diagnostics.
+    static List<Stmt> compile(String source, boolean lazyFunctions, Diagnostics diagnostics) {
+        return compile(source, lazyFunctions, true, diagnostics);
     }
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line : " + error.token.line);
-        hadRuntimeError = true;
+
+    // Lines of the REPL are not inlined: a later line can declare a function again,
+    // and the calls an earlier line inlined would keep the old body.
+    static List<Stmt> compile(String source, boolean lazyFunctions, boolean inline, Diagnostics diagnostics) {
+        Scanner scanner = new Scanner(source, diagnostics);
+        List <Token> tokens = scanner.scanTokens();
+        Parser parser = new Parser(tokens, lazyFunctions, diagnostics);
+        List<Stmt> statements = parser.parse();
+        if (diagnostics.hadError)
+            return null;
+        if (inline)
+            new Inliner().inline(statements);
+        new Resolver().resolve(statements);
+        new TypeInference().infer(statements);
+        return statements;
     }
 }
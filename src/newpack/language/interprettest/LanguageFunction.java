@@ -1,10 +1,13 @@
 package newpack.language.interprettest;
 
+import java.util.Collections;
 import java.util.List;
 
 public class LanguageFunction implements LanguageCallable {
     private final Stmt.Function declaration;
     private final Environment closure;
+    // Set by the first call, which may be on any thread sharing the function.
+    private volatile List<Stmt> body = null;
     LanguageFunction(Stmt.Function declaration, Environment closure) {
         this.declaration = declaration;
         this.closure = closure;
@@ -22,17 +25,60 @@ public class LanguageFunction implements LanguageCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        List<Stmt> body = this.body;
+        if (body == null)
+            body = this.body = body(interpreter.diagnostics);
+        Environment environment = new Environment(closure, declaration.locals);
+        boolean[] boxed = declaration.boxedParams;
         for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme,
-                    arguments.get(i)
-            );
+            if (boxed != null && boxed[i])
+                environment.defineBoxed(declaration.params.get(i).lexeme, arguments.get(i));
+            else
+                environment.define(declaration.params.get(i).lexeme,
+                        arguments.get(i)
+                );
         }
+        Profiler profiler = interpreter.profiler;
+        if (profiler != null)
+            profiler.enter(declaration);
+        Object event = Telemetry.enabled ? Telemetry.beginCall() : null;
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeBlock(body, environment);
         } catch (Return returnValue) {
             return returnValue.value;
+        } finally {
+            if (profiler != null)
+                profiler.exit();
+            if (event != null)
+                Telemetry.endCall(event, declaration);
         }
         return null;
     }
+
+    // The first call of a lazily parsed function parses its body and runs the passes
+    // the rest of the program went through. A body with a syntax error is reported
+    // once and fails every call, so the run ends as for any other runtime error: the
+    // parser reports to diagnostics of its own that share the run's stream. The
+    // declaration can be shared by interpreters on other threads, so its body is only
+    // read under its lock.
+    private List<Stmt> body(Diagnostics diagnostics) {
+        synchronized (declaration) {
+            if (declaration.deferred != null) {
+                try {
+                    List<Stmt> body = Parser.parseDeferred(declaration.deferred, new Diagnostics(diagnostics.err));
+                    if (body != null) {
+                        List<Stmt> function = Collections.singletonList(declaration);
+                        declaration.body = body;
+                        new Resolver().resolve(function);
+                        new TypeInference().infer(function);
+                    }
+                } finally {
+                    declaration.deferred = null;
+                }
+            }
+            if (declaration.body == null)
+                throw new RuntimeError(declaration.name, "Syntax error in the body of " + declaration.name.lexeme);
+            return declaration.body;
+        }
+    }
 }
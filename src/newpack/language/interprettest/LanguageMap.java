@@ -0,0 +1,178 @@
+package newpack.language.interprettest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+// Open-addressing hash table. Slots index into entry arrays kept in insertion order,
+// so iteration is deterministic and deletions only leave a tombstone entry behind.
+class LanguageMap {
+    private static final int FREE = -1;
+    private static final Object DELETED = new Object();
+
+    private int[] slots;
+    private int[] hashes;
+    private Object[] keys;
+    private Object[] values;
+    private int used = 0;
+    private int size = 0;
+    private int insertions = 0;
+
+    LanguageMap() {
+        this(8);
+    }
+    LanguageMap(int expected) {
+        int capacity = 8;
+        while (capacity * 2 < expected * 3)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+    Object get(Object key) {
+        key = normalize(key);
+        int entry = find(key, hash(key));
+        return entry >= 0 ? values[entry] : null;
+    }
+    boolean containsKey(Object key) {
+        key = normalize(key);
+        return find(key, hash(key)) >= 0;
+    }
+    void set(Object key, Object value) {
+        key = normalize(key);
+        int hash = hash(key);
+        int entry = find(key, hash);
+        if (entry >= 0) {
+            values[entry] = value;
+            return;
+        }
+        if (used == keys.length) {
+            rehash();
+            entry = find(key, hash);
+        }
+        slots[-1 - entry] = used;
+        hashes[used] = hash;
+        keys[used] = key;
+        values[used] = value;
+        used++;
+        size++;
+        insertions++;
+    }
+    boolean remove(Object key) {
+        key = normalize(key);
+        int entry = find(key, hash(key));
+        if (entry < 0)
+            return false;
+        keys[entry] = DELETED;
+        values[entry] = null;
+        size--;
+        return true;
+    }
+    void forEach(BiConsumer<Object, Object> action) {
+        int expected = insertions;
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == DELETED)
+                continue;
+            action.accept(keys[i], values[i]);
+            if (insertions != expected)
+                throw new NativeError("Map keys were added during iteration.");
+        }
+    }
+
+    // Returns the entry index, or -1 - slot for the free slot the key would occupy.
+    private int find(Object key, int hash) {
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int entry = slots[i];
+            if (entry == FREE)
+                return -1 - i;
+            if (hashes[entry] == hash && sameKey(keys[entry], key))
+                return entry;
+        }
+    }
+    private void rehash() {
+        int[] oldHashes = hashes;
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int oldUsed = used;
+        int capacity = slots.length;
+        if (size * 2 >= oldKeys.length)
+            capacity <<= 1;
+        allocate(capacity);
+        for (int i = 0; i < oldUsed; i++) {
+            if (oldKeys[i] == DELETED)
+                continue;
+            slots[-1 - find(oldKeys[i], oldHashes[i])] = used;
+            hashes[used] = oldHashes[i];
+            keys[used] = oldKeys[i];
+            values[used] = oldValues[i];
+            used++;
+        }
+    }
+    private void allocate(int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, FREE);
+        int entries = capacity / 3 * 2;
+        hashes = new int[entries];
+        keys = new Object[entries];
+        values = new Object[entries];
+        used = 0;
+    }
+
+    // Numbers are stored in one canonical form so that 2, 2.0 and 2.00 share a slot,
+    // the same way checkequality treats a BigInteger and BigDecimal of equal value.
+    private static Object normalize(Object key) {
+        if (key instanceof String || key instanceof BigInteger || key instanceof Boolean)
+            return key;
+        if (key instanceof Rope)
+            return key.toString();
+        if (key instanceof Decimal)
+            key = ((Decimal) key).toBigDecimal();
+        if (key instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) key;
+            if (decimal.signum() == 0)
+                return BigInteger.ZERO;
+            decimal = decimal.stripTrailingZeros();
+            if (decimal.scale() <= 0)
+                return decimal.toBigIntegerExact();
+            return decimal;
+        }
+        throw new NativeError("Map keys must be strings, numbers or booleans.");
+    }
+    private static int hash(Object key) {
+        int h;
+        if (key instanceof BigInteger && ((BigInteger) key).bitLength() < 64)
+            h = Long.hashCode(((BigInteger) key).longValue());
+        else
+            h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+    private static boolean sameKey(Object stored, Object key) {
+        if (stored == key)
+            return true;
+        if (stored instanceof BigInteger && key instanceof BigInteger) {
+            BigInteger a = (BigInteger) stored;
+            BigInteger b = (BigInteger) key;
+            if (a.bitLength() < 64 && b.bitLength() < 64)
+                return a.longValue() == b.longValue();
+            return a.equals(b);
+        }
+        return stored.equals(key);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == DELETED)
+                continue;
+            if (builder.length() > 1)
+                builder.append(", ");
+            builder.append(keys[i]).append(": ").append(values[i] == null ? "None" : values[i]);
+        }
+        return builder.append("}").toString();
+    }
+}
@@ -0,0 +1,38 @@
+package newpack.language.interprettest;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+class MapLibrary {
+    static void define(Environment globals) {
+        globals.define("mapGet", new NativeFunction("mapGet", 2,
+                (interpreter, arguments) -> map(arguments, "mapGet").get(arguments.get(1))));
+        globals.define("mapSet", new NativeFunction("mapSet", 3, (interpreter, arguments) -> {
+            map(arguments, "mapSet").set(arguments.get(1), arguments.get(2));
+            return arguments.get(2);
+        }));
+        globals.define("mapDelete", new NativeFunction("mapDelete", 2,
+                (interpreter, arguments) -> map(arguments, "mapDelete").remove(arguments.get(1))));
+        globals.define("mapHas", new NativeFunction("mapHas", 2,
+                (interpreter, arguments) -> map(arguments, "mapHas").containsKey(arguments.get(1))));
+        globals.define("mapSize", new NativeFunction("mapSize", 1,
+                (interpreter, arguments) -> BigInteger.valueOf(map(arguments, "mapSize").size())));
+        globals.define("mapEach", new NativeFunction("mapEach", 2, (interpreter, arguments) -> {
+            LanguageMap map = map(arguments, "mapEach");
+            if (!(arguments.get(1) instanceof LanguageCallable))
+                throw new NativeError("Second argument to mapEach must be a function.");
+            LanguageCallable callback = (LanguageCallable) arguments.get(1);
+            if (callback.arity() != 2)
+                throw new NativeError("mapEach expects a function taking a key and a value.");
+            map.forEach((key, value) -> callback.call(interpreter, Arrays.asList(key, value)));
+            return null;
+        }));
+    }
+
+    private static LanguageMap map(List<Object> arguments, String function) {
+        if (!(arguments.get(0) instanceof LanguageMap))
+            throw new NativeError("First argument to " + function + " must be a map.");
+        return (LanguageMap) arguments.get(0);
+    }
+}
@@ -0,0 +1,328 @@
+package newpack.language.interprettest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+// The global table math, whose functions run natively: mapGet(math, "sqrt")(2).
+// Integer functions are exact. Decimal results are correct to the places a division
+// gives, Interpreter.DECIMAL_PLACES, and trimmed the way quotients are.
+//
+// The series work in binary fixed point, a BigInteger v standing for v / 2^bits, so
+// rescaling is a shift rather than a division by a power of ten, with guard bits for
+// what each argument reduction amplifies: exp halves its argument and squares back,
+// sin divides by a power of three and applies the triple-angle formula, ln is Newton's
+// iteration on exp, and pi is Chudnovsky's series by binary splitting.
+class MathLibrary {
+    private static final int GUARD_DIGITS = 20;
+    private static final int GUARD_BITS = 64;
+    private static final double BITS_PER_DIGIT = Math.log(10) / Math.log(2);
+    private static final double LOG2_E = 1 / Math.log(2);
+    private static final double LOG2_3 = Math.log(3) / Math.log(2);
+    // exp(x) has about x * log10(e) digits before the point.
+    private static final int MAX_EXP = 100_000;
+    // BigInteger.sqrt is fine up to here; beyond it each of its steps divides.
+    private static final int NEWTON_SQRT_BITS = 1 << 12;
+    private static final BigInteger C3_OVER_24 = BigInteger.valueOf(640320).pow(3).divide(BigInteger.valueOf(24));
+    private static BigInteger cachedPi = BigInteger.ZERO;
+    private static int cachedPiBits = 0;
+
+    static void define(Environment globals) {
+        LanguageMap math = new LanguageMap(16);
+        function(math, "isqrt", 1, (interpreter, arguments) -> isqrt(natural(arguments.get(0), "isqrt")));
+        function(math, "gcd", 2, (interpreter, arguments) ->
+                integer(arguments.get(0), "gcd").gcd(integer(arguments.get(1), "gcd")));
+        function(math, "factorial", 1, (interpreter, arguments) -> {
+            BigInteger n = natural(arguments.get(0), "factorial");
+            if (n.bitLength() > 31)
+                throw new NativeError("math.factorial argument is too large.");
+            if (interpreter.budget != null)
+                interpreter.budget.checkBits(factorialBits(n.longValue()));
+            return product(1, n.longValue(), interpreter.budget);
+        });
+        function(math, "binomial", 2, (interpreter, arguments) -> {
+            BigInteger n = natural(arguments.get(0), "binomial");
+            BigInteger k = integer(arguments.get(1), "binomial");
+            if (k.signum() < 0 || k.compareTo(n) > 0)
+                return BigInteger.ZERO;
+            k = k.min(n.subtract(k));
+            if (k.bitLength() > 31 || n.bitLength() > 62)
+                throw new NativeError("math.binomial arguments are too large.");
+            Budget budget = interpreter.budget;
+            // The binomial is at least (n / k)^k.
+            if (budget != null && k.signum() > 0)
+                budget.checkBits(k.doubleValue() * Math.log(n.doubleValue() / k.doubleValue()) * LOG2_E);
+            return product(n.longValue() - k.longValue() + 1, n.longValue(), budget)
+                    .divide(product(1, k.longValue(), budget));
+        });
+        function(math, "sqrt", 1, (interpreter, arguments) -> {
+            BigDecimal x = decimal(arguments.get(0), "sqrt");
+            if (x.signum() < 0)
+                throw new NativeError("math.sqrt argument must not be negative.");
+            return result(sqrt(x, Interpreter.DECIMAL_PLACES + GUARD_DIGITS));
+        });
+        function(math, "exp", 1, (interpreter, arguments) -> {
+            BigDecimal x = decimal(arguments.get(0), "exp");
+            if (x.abs().compareTo(BigDecimal.valueOf(MAX_EXP)) > 0)
+                throw new NativeError("math.exp argument is too large.");
+            if (interpreter.budget != null)
+                interpreter.budget.checkBits(x.doubleValue() * LOG2_E);
+            // The input needs as many more bits as e^x has before the point.
+            int bits = bits() + (int) Math.ceil(Math.abs(x.doubleValue()) * LOG2_E) + 2;
+            BigInteger power = exp(fixed(x.abs(), bits), bits);
+            if (x.signum() < 0)
+                power = BigInteger.ONE.shiftLeft(2 * bits).divide(power);
+            return result(decimal(power, bits));
+        });
+        function(math, "ln", 1, (interpreter, arguments) -> {
+            BigDecimal x = decimal(arguments.get(0), "ln");
+            if (x.signum() <= 0)
+                throw new NativeError("math.ln argument must be positive.");
+            return result(decimal(ln(x, bits()), bits()));
+        });
+        function(math, "sin", 1, (interpreter, arguments) ->
+                result(decimal(sin(decimal(arguments.get(0), "sin"), bits(), false), bits())));
+        function(math, "cos", 1, (interpreter, arguments) ->
+                result(decimal(sin(decimal(arguments.get(0), "cos"), bits(), true), bits())));
+        function(math, "pi", 0, (interpreter, arguments) -> result(decimal(pi(bits()), bits())));
+        globals.define("math", math);
+    }
+
+    private static void function(LanguageMap math, String name, int arity, NativeFunction.Body body) {
+        math.set(name, new NativeFunction("math." + name, arity, (interpreter, arguments) -> {
+            Object result = body.call(interpreter, arguments);
+            if (interpreter.budget != null)
+                interpreter.budget.checkDigits(result);
+            return result;
+        }));
+    }
+
+    private static BigInteger integer(Object value, String function) {
+        if (!(value instanceof BigInteger))
+            throw new NativeError("math." + function + " needs integers.");
+        return (BigInteger) value;
+    }
+    private static BigInteger natural(Object value, String function) {
+        BigInteger integer = integer(value, function);
+        if (integer.signum() < 0)
+            throw new NativeError("math." + function + " needs an integer that is not negative.");
+        return integer;
+    }
+    private static BigDecimal decimal(Object value, String function) {
+        value = Decimal.widen(value);
+        if (value instanceof BigInteger)
+            return new BigDecimal((BigInteger) value);
+        if (value instanceof BigDecimal)
+            return (BigDecimal) value;
+        throw new NativeError("math." + function + " needs a number.");
+    }
+
+    // Rounded and trimmed the way the interpreter's division leaves a quotient.
+    private static Object result(BigDecimal value) {
+        BigDecimal rounded = value.setScale(Interpreter.DECIMAL_PLACES, RoundingMode.HALF_EVEN);
+        return Decimal.of(new BigDecimal(rounded.stripTrailingZeros().toPlainString()));
+    }
+
+    // The fraction bits that carry a result's places and its guard digits.
+    private static int bits() {
+        return (int) Math.ceil((Interpreter.DECIMAL_PLACES + GUARD_DIGITS) * BITS_PER_DIGIT);
+    }
+    private static BigInteger fixed(BigDecimal x, int bits) {
+        BigInteger shifted = x.unscaledValue().shiftLeft(bits);
+        if (x.scale() <= 0)
+            return shifted.multiply(BigInteger.TEN.pow(-x.scale()));
+        return shifted.divide(BigInteger.TEN.pow(x.scale()));
+    }
+    private static BigDecimal decimal(BigInteger x, int bits) {
+        int places = Interpreter.DECIMAL_PLACES + GUARD_DIGITS;
+        return new BigDecimal(x.multiply(BigInteger.TEN.pow(places)).shiftRight(bits), places);
+    }
+
+    // A lower bound of the bits of n!, from Stirling's formula without its 1 / 12n term.
+    private static double factorialBits(long n) {
+        if (n < 2)
+            return 0;
+        return (n * Math.log(n) - n + 0.5 * Math.log(2 * Math.PI * n)) * LOG2_E;
+    }
+
+    // from * (from + 1) * ... * to, splitting the range in halves so the operands of
+    // every multiplication are about the same size. The budget's time limit is checked
+    // between multiplications.
+    private static BigInteger product(long from, long to, Budget budget) {
+        if (from > to)
+            return BigInteger.ONE;
+        if (to - from < 16) {
+            BigInteger result = BigInteger.valueOf(from);
+            for (long i = from + 1; i <= to; i++)
+                result = result.multiply(BigInteger.valueOf(i));
+            return result;
+        }
+        long middle = from + (to - from) / 2;
+        BigInteger low = product(from, middle, budget);
+        BigInteger high = product(middle + 1, to, budget);
+        if (budget != null)
+            budget.checkTime();
+        return low.multiply(high);
+    }
+
+    // The exact floor of the square root. Large values use Newton's iteration for
+    // 1 / sqrt(a), y += y (1 - a y^2) / 2, which needs no division and doubles its
+    // bits every step, and settle the last few units against the square.
+    static BigInteger isqrt(BigInteger n) {
+        if (n.bitLength() <= NEWTON_SQRT_BITS)
+            return n.sqrt();
+        // a = n / 4^t lies in [1, 4).
+        int t = (n.bitLength() - 1) / 2;
+        int top = n.bitLength() - 60;
+        double a = n.shiftRight(top).doubleValue() * Math.pow(2, top - 2 * t);
+        int precision = 48;
+        BigInteger y = BigInteger.valueOf((long) (Math.pow(2, precision) / Math.sqrt(a)));
+        BigInteger scaled = null;
+        for (int bits : schedule(t + GUARD_BITS, 2)) {
+            y = y.shiftLeft(bits - precision);
+            precision = bits;
+            scaled = shift(n, bits - 2 * t);
+            BigInteger error = BigInteger.ONE.shiftLeft(bits)
+                    .subtract(scaled.multiply(y.multiply(y)).shiftRight(2 * bits));
+            y = y.add(y.multiply(error).shiftRight(bits + 1));
+        }
+        BigInteger root = scaled.multiply(y).shiftRight(2 * precision - t);
+        while (root.multiply(root).compareTo(n) > 0)
+            root = root.subtract(BigInteger.ONE);
+        while (root.add(BigInteger.ONE).pow(2).compareTo(n) <= 0)
+            root = root.add(BigInteger.ONE);
+        return root;
+    }
+    private static BigInteger shift(BigInteger value, int bits) {
+        return bits >= 0 ? value.shiftLeft(bits) : value.shiftRight(-bits);
+    }
+
+    // The precisions of an iteration that multiplies its correct bits by growth,
+    // ending at precision, from the smallest.
+    private static List<Integer> schedule(int precision, int growth) {
+        List<Integer> steps = new ArrayList<>();
+        for (int bits = precision; bits > 48; bits = bits / growth + 8)
+            steps.add(0, bits);
+        return steps;
+    }
+
+    // Truncated to places.
+    private static BigDecimal sqrt(BigDecimal x, int places) {
+        places = Math.max(places, (x.scale() + 1) / 2);
+        return new BigDecimal(isqrt(x.movePointRight(2 * places).toBigInteger()), places);
+    }
+
+    // How many times the series arguments are halved; more halvings mean fewer
+    // terms but more guard bits.
+    private static int halvings(int bits) {
+        return (int) Math.sqrt(bits) / 2 + 1;
+    }
+
+    // e^x for x >= 0: the sum for x / 2^k, squared k times.
+    private static BigInteger exp(BigInteger x, int bits) {
+        long whole = x.shiftRight(bits).longValue() + 1;
+        int halvings = halvings(bits) + BigInteger.valueOf(whole).bitLength();
+        int work = bits + halvings + (int) Math.ceil(whole * LOG2_E) + GUARD_BITS;
+        BigInteger one = BigInteger.ONE.shiftLeft(work);
+        BigInteger r = x.shiftLeft(work - bits).shiftRight(halvings);
+        BigInteger sum = one;
+        BigInteger term = one;
+        for (int n = 1; term.signum() != 0; n++) {
+            term = term.multiply(r).shiftRight(work).divide(BigInteger.valueOf(n));
+            sum = sum.add(term);
+        }
+        for (int i = 0; i < halvings; i++)
+            sum = sum.multiply(sum).shiftRight(work);
+        return sum.shiftRight(work - bits);
+    }
+
+    // ln(x) for x > 0 by Newton's iteration y += 2 (q - 1) / (q + 1) with q = x / e^y,
+    // which triples the correct bits every step, from a double estimate.
+    private static BigInteger ln(BigDecimal x, int bits) {
+        BigInteger unscaled = x.unscaledValue();
+        int top = Math.max(0, unscaled.bitLength() - 60);
+        double estimate = Math.log(unscaled.shiftRight(top).doubleValue()) + top * Math.log(2)
+                - x.scale() * Math.log(10);
+        int precision = 48;
+        BigInteger y = fixed(new BigDecimal(estimate), precision);
+        for (int step : schedule(bits + GUARD_BITS, 3)) {
+            y = y.shiftLeft(step - precision);
+            precision = step;
+            // x and e^|y| get as many more bits as e^|y| has before the point.
+            int extra = (int) Math.ceil((Math.abs(y.shiftRight(step).doubleValue()) + 1) * LOG2_E) + 2;
+            int work = step + extra;
+            BigInteger power = exp(y.abs().shiftLeft(extra), work);
+            BigInteger fixedX = fixed(x, work);
+            BigInteger q = y.signum() >= 0 ? fixedX.shiftLeft(work).divide(power)
+                    : fixedX.multiply(power).shiftRight(work);
+            q = q.shiftRight(extra);
+            BigInteger one = BigInteger.ONE.shiftLeft(step);
+            y = y.add(q.subtract(one).shiftLeft(step + 1).divide(q.add(one)));
+        }
+        return y.shiftRight(precision - bits);
+    }
+
+    // sin(x), or cos(x) as sin(x + pi/2). x is brought within pi of zero and divided
+    // by 3^k, and sin(3a) = 3 sin(a) - 4 sin(a)^3 is applied k times to the sum for
+    // the small angle.
+    private static BigInteger sin(BigDecimal x, int bits, boolean cosine) {
+        int thirds = (int) (halvings(bits) / LOG2_3) + 1;
+        int work = bits + (int) Math.ceil(thirds * LOG2_3) + GUARD_BITS;
+        int whole = (int) Math.ceil(Math.max(0, x.precision() - x.scale()) * BITS_PER_DIGIT) + 2;
+        BigInteger pi = pi(work + whole);
+        BigInteger angle = fixed(x, work + whole);
+        if (cosine)
+            angle = angle.add(pi.shiftRight(1));
+        angle = angle.add(pi).mod(pi.shiftLeft(1)).subtract(pi).shiftRight(whole);
+        BigInteger r = angle.divide(BigInteger.valueOf(3).pow(thirds));
+        BigInteger r2 = r.multiply(r).shiftRight(work);
+        BigInteger sum = r;
+        BigInteger term = r;
+        for (long n = 2; term.signum() != 0; n += 2) {
+            term = term.multiply(r2).shiftRight(work).divide(BigInteger.valueOf(-n * (n + 1)));
+            sum = sum.add(term);
+        }
+        for (int i = 0; i < thirds; i++) {
+            BigInteger cube = sum.multiply(sum).shiftRight(work).multiply(sum).shiftRight(work);
+            sum = sum.multiply(BigInteger.valueOf(3)).subtract(cube.shiftLeft(2));
+        }
+        return sum.shiftRight(work - bits);
+    }
+
+    // pi = 426880 sqrt(10005) Q / T, with Q and T from binary splitting of the
+    // Chudnovsky series, about 47 bits a term. The longest one computed is kept.
+    private static synchronized BigInteger pi(int bits) {
+        if (cachedPiBits < bits) {
+            int work = bits + GUARD_BITS;
+            BigInteger[] pqt = split(0, work / 47 + 2);
+            BigInteger root = isqrt(BigInteger.valueOf(10005).shiftLeft(2 * work));
+            cachedPi = root.multiply(BigInteger.valueOf(426880)).multiply(pqt[1]).divide(pqt[2]);
+            cachedPiBits = work;
+        }
+        return cachedPi.shiftRight(cachedPiBits - bits);
+    }
+
+    // P, Q and T for the terms from <= n < to.
+    private static BigInteger[] split(long from, long to) {
+        if (to - from == 1) {
+            if (from == 0)
+                return new BigInteger[] { BigInteger.ONE, BigInteger.ONE, BigInteger.valueOf(13591409) };
+            BigInteger a = BigInteger.valueOf(from);
+            BigInteger p = BigInteger.valueOf(6 * from - 5).multiply(BigInteger.valueOf(2 * from - 1))
+                    .multiply(BigInteger.valueOf(6 * from - 1));
+            BigInteger q = a.multiply(a).multiply(a).multiply(C3_OVER_24);
+            BigInteger t = p.multiply(BigInteger.valueOf(13591409).add(a.multiply(BigInteger.valueOf(545140134))));
+            return new BigInteger[] { p, q, from % 2 == 1 ? t.negate() : t };
+        }
+        long middle = (from + to) / 2;
+        BigInteger[] left = split(from, middle);
+        BigInteger[] right = split(middle, to);
+        return new BigInteger[] {
+                left[0].multiply(right[0]),
+                left[1].multiply(right[1]),
+                left[2].multiply(right[1]).add(left[0].multiply(right[2]))
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package newpack.language.interprettest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The modules one run imports. `import name;` finds name.lang in the first directory
+// of the module path that has it, runs it once in globals of its own and binds name to
+// a map of the globals the module defined, so mapGet(name, "f") reaches them. A module
+// is not read until an import of it runs. Its compiled program comes from ProgramCache,
+// so it is parsed once per process, and later imports in the same run share the map.
+final class Modules {
+    private final List<Path> path;
+    private final boolean lazyFunctions;
+    private final Map<Path, LanguageMap> loaded = new HashMap<>();
+    private final Set<Path> loading = new HashSet<>();
+
+    Modules(List<Path> path, boolean lazyFunctions) {
+        this.path = path;
+        this.lazyFunctions = lazyFunctions;
+    }
+
+    synchronized LanguageMap load(Interpreter importer, Token name) {
+        Path file = find(name);
+        LanguageMap exports = loaded.get(file);
+        if (exports != null)
+            return exports;
+        if (!loading.add(file))
+            throw new RuntimeError(name, "Module '" + name.lexeme + "' is imported while it is still loading.");
+        try {
+            byte[] source;
+            try {
+                source = Files.readAllBytes(file);
+            } catch (IOException error) {
+                throw new RuntimeError(name, "Cannot read module '" + name.lexeme + "': " + error.getMessage());
+            }
+            List<Stmt> statements = ProgramCache.compile(source, lazyFunctions, importer.diagnostics);
+            if (statements == null)
+                throw new RuntimeError(name, "Syntax error in module '" + name.lexeme + "'.");
+            exports = run(importer, name, statements);
+            loaded.put(file, exports);
+            return exports;
+        } finally {
+            loading.remove(file);
+        }
+    }
+
+    private Path find(Token name) {
+        for (Path directory : path) {
+            Path file = directory.resolve(name.lexeme + ".lang");
+            if (Files.isRegularFile(file)) {
+                try {
+                    return file.toRealPath();
+                } catch (IOException ignored) {
+                    return file.toAbsolutePath().normalize();
+                }
+            }
+        }
+        throw new RuntimeError(name, "Module '" + name.lexeme + "' not found on the module path.");
+    }
+
+    // The module's globals, less the builtins every interpreter starts with.
+    private static LanguageMap run(Interpreter importer, Token name, List<Stmt> statements) {
+        Interpreter module = importer.module();
+        Map<String, Object> builtins = new HashMap<>();
+        module.globals.forEach(builtins::put);
+        try {
+            module.run(statements);
+        } catch (RuntimeError error) {
+            throw new RuntimeError(name, "In module '" + name.lexeme + "' [line " + error.token.line + "]: "
+                    + error.getMessage());
+        } finally {
+            importer.counters.add(module.counters);
+        }
+        LanguageMap exports = new LanguageMap();
+        module.globals.forEach((global, value) -> {
+            if (!builtins.containsKey(global) || builtins.get(global) != value)
+                exports.set(global, value);
+        });
+        return exports;
+    }
+}
@@ -0,0 +1,7 @@
+package newpack.language.interprettest;
+
+public class NativeError extends RuntimeException {
+    NativeError(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,55 @@
+package newpack.language.interprettest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+@Name("newpack.language.LargeNumberOperation")
+@Label("Large Number Operation")
+@Description("A multiplication or division with an operand above the digit threshold")
+@Category("Interpreter")
+@StackTrace(false)
+final class NumberOperationEvent extends jdk.jfr.Event {
+    static final int DIGIT_THRESHOLD = Integer.getInteger("newpack.language.jfr.largeNumberDigits", 10_000);
+
+    @Label("Operator")
+    String operator;
+
+    @Label("Line")
+    int line;
+
+    @Label("Left Digits")
+    int leftDigits;
+
+    @Label("Right Digits")
+    int rightDigits;
+
+    void commit(Token operator, Object left, Object right) {
+        end();
+        if (!shouldCommit())
+            return;
+        leftDigits = digits(left);
+        rightDigits = digits(right);
+        if (Math.max(leftDigits, rightDigits) < DIGIT_THRESHOLD)
+            return;
+        this.operator = operator.lexeme;
+        this.line = operator.line;
+        commit();
+    }
+
+    // Estimated from the bit length, which is exact to within one digit and free.
+    static int digits(Object value) {
+        if (value instanceof BigInteger)
+            return (int) (((BigInteger) value).bitLength() * 0.30103) + 1;
+        if (value instanceof BigDecimal)
+            return ((BigDecimal) value).precision();
+        if (value instanceof Decimal)
+            return Long.toString(Math.abs(((Decimal) value).unscaled)).length();
+        return 0;
+    }
+}
@@ -0,0 +1,91 @@
+package newpack.language.interprettest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+// Prints the decimal text of very large numbers without building it as one String.
+// A number is split by a cached power of ten, 10^(LEAF_DIGITS * 2^k), close to its
+// square root; the quotient and the zero-padded remainder convert in turn, down to
+// leaves small enough for toString, and each leaf goes straight to the output. The
+// output flushes as it fills, so the text is never held whole. It is the same text
+// as toString gives.
+final class NumberText {
+    // Below this, toString is fast enough and the text is small.
+    private static final int LARGE_BITS = 1 << 15;
+    private static final int LEAF_DIGITS = 512;
+    private static final double BITS_PER_DIGIT = Math.log(10) / Math.log(2);
+    private static final int LEAF_BITS = (int) (2 * LEAF_DIGITS * BITS_PER_DIGIT);
+    private static final String ZEROS = "0".repeat(LEAF_DIGITS);
+    // POWERS.get(k) is 10^(LEAF_DIGITS * 2^k).
+    private static final List<BigInteger> POWERS = new ArrayList<>();
+
+    private NumberText() {
+    }
+
+    // Integers of any sign, and decimals that print in plain notation.
+    static boolean large(Object value) {
+        if (value instanceof BigInteger)
+            return ((BigInteger) value).bitLength() > LARGE_BITS;
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            return decimal.unscaledValue().bitLength() > LARGE_BITS && decimal.scale() >= 0
+                    && decimal.precision() - 1 - decimal.scale() >= -6;
+        }
+        return false;
+    }
+
+    static void print(Output output, Object value) {
+        if (value instanceof BigInteger) {
+            BigInteger integer = (BigInteger) value;
+            if (integer.signum() < 0)
+                output.print("-");
+            write(integer.abs(), 0, output);
+            return;
+        }
+        BigDecimal decimal = (BigDecimal) value;
+        if (decimal.signum() < 0)
+            output.print("-");
+        BigInteger[] parts = decimal.unscaledValue().abs().divideAndRemainder(BigInteger.TEN.pow(decimal.scale()));
+        write(parts[0], 0, output);
+        if (decimal.scale() > 0) {
+            output.print(".");
+            write(parts[1], decimal.scale(), output);
+        }
+    }
+
+    // Writes a non-negative value padded with leading zeros to at least digits.
+    private static void write(BigInteger value, long digits, Output output) {
+        if (value.bitLength() <= LEAF_BITS) {
+            String text = value.toString();
+            for (long zeros = digits - text.length(); zeros > 0; zeros -= ZEROS.length())
+                output.print(ZEROS.substring(0, (int) Math.min(zeros, ZEROS.length())));
+            output.print(text);
+            return;
+        }
+        int k = split(value.bitLength());
+        long low = (long) LEAF_DIGITS << k;
+        BigInteger[] parts = value.divideAndRemainder(power(k));
+        write(parts[0], digits - low, output);
+        parts[0] = null;
+        write(parts[1], low, output);
+    }
+
+    // The k whose power of ten is nearest the square root of the value, which keeps
+    // the divisions balanced.
+    private static int split(int bits) {
+        double half = bits / 2.0 / BITS_PER_DIGIT / LEAF_DIGITS;
+        return Math.max(0, (int) Math.round(Math.log(half) / Math.log(2)));
+    }
+
+    private static BigInteger power(int k) {
+        synchronized (POWERS) {
+            if (POWERS.isEmpty())
+                POWERS.add(BigInteger.TEN.pow(LEAF_DIGITS));
+            while (POWERS.size() <= k)
+                POWERS.add(POWERS.get(POWERS.size() - 1).pow(2));
+            return POWERS.get(k);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package newpack.language.interprettest;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// The options of one run. The command line parses them once; the daemon parses the
+// ones each request was sent with.
+class Options {
+    static final String USAGE = "In use [--flush=exit|size|newline] [--output=file] [--profile[=file]]"
+            + " [--max-statements=n] [--timeout=ms] [--max-digits=n] [--max-depth=n]"
+            + " [--stack-size=bytes[k|m|g]] [--huge-digits=n] [--huge-threads=n] [--module-path=dirs]"
+            + " [--directory=dir] [--lazy-functions] [script]";
+    // Each script call takes a few Java frames, about 1.5 KB of stack, so the launcher's
+    // default stack only allows a few hundred nested calls. Stack is reserved, and only
+    // committed as deep recursion actually uses it.
+    static final long DEFAULT_STACK_SIZE = 256L << 20;
+    // The limit ForkJoinPool itself puts on parallelism.
+    private static final long MAX_HUGE_THREADS = 0x7fff;
+
+    Output.FlushPolicy flushPolicy = null;
+    String outputPath = null;
+    String profilePath = null;
+    long maxStatements = Budget.UNLIMITED;
+    long timeoutMillis = Budget.UNLIMITED;
+    long maxDigits = Budget.UNLIMITED;
+    long maxDepth = Budget.UNLIMITED;
+    long stackSize = DEFAULT_STACK_SIZE;
+    long hugeDigits = HugeArithmetic.DEFAULT_DIGITS;
+    int hugeThreads = ForkJoinPool.getCommonPoolParallelism();
+    boolean lazyFunctions = false;
+    // Searched in order for imported modules; the working directory when empty.
+    final List<Path> modulePath = new ArrayList<>();
+    // Where relative file paths and module path entries start; the working directory
+    // when null.
+    Path directory = null;
+
+    boolean parse(String arg) {
+        String value = arg.substring(arg.indexOf('=') + 1);
+        if (arg.startsWith("--flush=")) {
+            switch (value) {
+                case "exit": flushPolicy = Output.FlushPolicy.ON_EXIT; return true;
+                case "size": flushPolicy = Output.FlushPolicy.ON_SIZE; return true;
+                case "newline": flushPolicy = Output.FlushPolicy.ON_NEWLINE; return true;
+            }
+            return false;
+        }
+        if (arg.startsWith("--output=")) {
+            outputPath = value;
+            return true;
+        }
+        if (arg.equals("--profile") || arg.startsWith("--profile=")) {
+            profilePath = arg.equals("--profile") ? "profile.folded" : value;
+            return true;
+        }
+        if (arg.startsWith("--module-path=")) {
+            for (String directory : value.split(File.pathSeparator)) {
+                if (!directory.isEmpty())
+                    modulePath.add(Paths.get(directory));
+            }
+            return true;
+        }
+        if (arg.startsWith("--directory=")) {
+            directory = Paths.get(value);
+            return true;
+        }
+        if (arg.equals("--lazy-functions")) {
+            lazyFunctions = true;
+            return true;
+        }
+        try {
+            if (arg.startsWith("--max-statements="))
+                maxStatements = limit(value);
+            else if (arg.startsWith("--timeout="))
+                timeoutMillis = limit(value);
+            else if (arg.startsWith("--max-digits="))
+                maxDigits = limit(value);
+            else if (arg.startsWith("--max-depth="))
+                maxDepth = limit(value);
+            else if (arg.startsWith("--stack-size="))
+                stackSize = size(value);
+            else if (arg.startsWith("--huge-digits="))
+                hugeDigits = limit(value);
+            else if (arg.startsWith("--huge-threads="))
+                hugeThreads = (int) Math.min(limit(value), MAX_HUGE_THREADS);
+            else
+                return false;
+            return true;
+        } catch (NumberFormatException error) {
+            return false;
+        }
+    }
+    private static long limit(String value) {
+        long limit = Long.parseLong(value);
+        if (limit <= 0)
+            throw new NumberFormatException(value);
+        return limit;
+    }
+
+    // A byte count with an optional k, m or g suffix, as -Xss takes.
+    private static long size(String value) {
+        int shift = 0;
+        switch (value.isEmpty() ? ' ' : Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 'k': shift = 10; break;
+            case 'm': shift = 20; break;
+            case 'g': shift = 30; break;
+        }
+        long size = limit(shift == 0 ? value : value.substring(0, value.length() - 1));
+        if (size > Long.MAX_VALUE >> shift)
+            throw new NumberFormatException(value);
+        return size << shift;
+    }
+
+    Output.FlushPolicy flushPolicy(Output.FlushPolicy defaultPolicy) {
+        return flushPolicy != null ? flushPolicy : defaultPolicy;
+    }
+
+    Interpreter interpreter(Output output, Diagnostics diagnostics) {
+        Interpreter interpreter = new Interpreter(output, diagnostics);
+        if (maxStatements != Budget.UNLIMITED || timeoutMillis != Budget.UNLIMITED
+                || maxDigits != Budget.UNLIMITED || maxDepth != Budget.UNLIMITED)
+            interpreter.budget = new Budget(maxStatements, timeoutMillis, maxDigits, maxDepth);
+        List<Path> modules = new ArrayList<>();
+        for (Path entry : modulePath.isEmpty() ? Collections.singletonList(Paths.get("")) : modulePath)
+            modules.add(directory != null ? directory.resolve(entry) : entry);
+        interpreter.modules = new Modules(modules, lazyFunctions);
+        if (directory != null)
+            interpreter.directory = directory;
+        if (hugeDigits != HugeArithmetic.DEFAULT_DIGITS || hugeThreads != ForkJoinPool.getCommonPoolParallelism())
+            interpreter.huge = new HugeArithmetic(hugeDigits, hugeThreads);
+        return interpreter;
+    }
+}
@@ -0,0 +1,102 @@
+package newpack.language.interprettest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class Output {
+    enum FlushPolicy {
+        ON_EXIT, ON_SIZE, ON_NEWLINE
+    }
+
+    static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final WritableByteChannel sink;
+    private final CharsetEncoder encoder;
+    private final FlushPolicy policy;
+    private final int bufferSize;
+    private final StringBuilder pending;
+    private final ByteBuffer bytes;
+
+    Output(WritableByteChannel sink, Charset charset, FlushPolicy policy, int bufferSize) {
+        this.sink = sink;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.policy = policy;
+        this.bufferSize = bufferSize;
+        this.pending = new StringBuilder(bufferSize);
+        this.bytes = ByteBuffer.allocate(Math.max(bufferSize, 1024));
+    }
+
+    static Output stdout(FlushPolicy policy) {
+        return new Output(Channels.newChannel(new FileOutputStream(FileDescriptor.out)),
+                Charset.defaultCharset(), policy, DEFAULT_BUFFER_SIZE);
+    }
+    static Output file(Path path, FlushPolicy policy) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new Output(channel, Charset.defaultCharset(), policy, DEFAULT_BUFFER_SIZE);
+    }
+    static Output memory(ByteArrayOutputStream buffer) {
+        return new Output(Channels.newChannel(buffer), Charset.defaultCharset(),
+                FlushPolicy.ON_EXIT, DEFAULT_BUFFER_SIZE);
+    }
+
+    synchronized void print(CharSequence text) {
+        pending.append(text);
+        if (policy == FlushPolicy.ON_SIZE && pending.length() >= bufferSize)
+            flush();
+    }
+    synchronized void println(CharSequence text) {
+        pending.append(text).append(NEWLINE);
+        if (policy == FlushPolicy.ON_NEWLINE || (policy == FlushPolicy.ON_SIZE && pending.length() >= bufferSize))
+            flush();
+    }
+
+    synchronized void flush() {
+        if (pending.length() == 0)
+            return;
+        try {
+            CharBuffer chars = CharBuffer.wrap(pending);
+            encoder.reset();
+            while (encoder.encode(chars, bytes, true).isOverflow())
+                drain();
+            while (encoder.flush(bytes).isOverflow())
+                drain();
+            drain();
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        } finally {
+            pending.setLength(0);
+        }
+    }
+    synchronized void close() {
+        flush();
+        try {
+            sink.close();
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            sink.write(bytes);
+        bytes.clear();
+    }
+}
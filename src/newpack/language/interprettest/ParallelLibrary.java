@@ -0,0 +1,174 @@
+package newpack.language.interprettest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// parallelRange(start, end, function, reduction) calls function(i) for every integer
+// start <= i < end on the common ForkJoinPool and combines the results with one of the
+// reductions "sum", "min", "max" or "concat". The range is cut into chunks by index,
+// each chunk is folded left to right, and the chunks are combined in index order, so
+// the result is the one a sequential loop would give whatever the scheduling; min and
+// max keep the first of equal values. An empty range gives 0, none or "".
+//
+// Every chunk runs on a fork of the calling interpreter, with its own environment,
+// counters and budget, sharing the globals and the run's limits. Functions can read globals but should not
+// assign them or variables captured from the caller, since nothing orders those
+// writes; prints from different chunks can interleave. If iterations fail, the error
+// reported is the one the sequential loop would have stopped at.
+class ParallelLibrary {
+    private enum Reduction { SUM, MIN, MAX, CONCAT }
+
+    // Enough chunks per worker that uneven iterations still balance.
+    private static final int CHUNKS_PER_THREAD = 8;
+    private static final Token PLUS = new Token(TokenType.PLUS, "+", null, 0);
+    private static final Token STAR = new Token(TokenType.STAR, "*", null, 0);
+    private static final Token LESS = new Token(TokenType.LESS, "<", null, 0);
+    private static final Token GREATER = new Token(TokenType.GREATER, ">", null, 0);
+
+    static void define(Environment globals) {
+        globals.define("parallelRange", new NativeFunction("parallelRange", 4, ParallelLibrary::parallelRange));
+    }
+
+    private static Object parallelRange(Interpreter interpreter, List<Object> arguments) {
+        long start = bound(arguments.get(0));
+        long end = bound(arguments.get(1));
+        if (!(arguments.get(2) instanceof LanguageCallable) || ((LanguageCallable) arguments.get(2)).arity() != 1)
+            throw new NativeError("Third argument to parallelRange must be a function taking one argument.");
+        LanguageCallable function = (LanguageCallable) arguments.get(2);
+        Reduction reduction = reduction(arguments.get(3));
+        if (start >= end)
+            return identity(reduction);
+        long size;
+        try {
+            size = Math.subtractExact(end, start);
+        } catch (ArithmeticException overflow) {
+            throw new NativeError("parallelRange range is too large.");
+        }
+        int chunks = (int) Math.min(size, (long) ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD);
+        long chunkSize = (size + chunks - 1) / chunks;
+        chunks = (int) ((size + chunkSize - 1) / chunkSize);
+
+        Interpreter[] forks = new Interpreter[chunks];
+        Object[] partials = new Object[chunks];
+        RuntimeException[] errors = new RuntimeException[chunks];
+        AtomicInteger firstFailed = new AtomicInteger(chunks);
+        if (interpreter.budget != null)
+            interpreter.budget.share();
+        ForkJoinPool.commonPool().invoke(new Chunks(0, chunks, chunk -> {
+            Interpreter fork = interpreter.fork();
+            forks[chunk] = fork;
+            long from = start + chunk * chunkSize;
+            long to = Math.min(end, from + chunkSize);
+            Object partial = null;
+            try {
+                for (long i = from; i < to; i++) {
+                    // Chunks after a failed one are abandoned; earlier ones run on, as
+                    // one of them may fail first in loop order.
+                    if (chunk > firstFailed.get())
+                        return;
+                    if (fork.budget != null)
+                        fork.budget.check();
+                    Object value = function.call(fork, Collections.singletonList(BigInteger.valueOf(i)));
+                    partial = i == from ? check(reduction, value) : combine(fork, reduction, partial, value);
+                }
+                partials[chunk] = partial;
+            } catch (RuntimeException error) {
+                errors[chunk] = error;
+                firstFailed.accumulateAndGet(chunk, Math::min);
+            }
+        }));
+
+        for (Interpreter fork : forks) {
+            interpreter.counters.add(fork.counters);
+            if (interpreter.budget != null)
+                interpreter.budget.join(fork.budget);
+        }
+        for (RuntimeException error : errors) {
+            if (error != null)
+                throw error;
+        }
+        // The forks' last statements, short of a batch, were not checked yet.
+        if (interpreter.budget != null)
+            interpreter.budget.check();
+        Object result = partials[0];
+        for (int chunk = 1; chunk < chunks; chunk++)
+            result = combine(interpreter, reduction, result, partials[chunk]);
+        return result;
+    }
+
+    private interface Chunk {
+        void run(int chunk);
+    }
+    // Splits the chunk indexes in halves down to single chunks.
+    private static final class Chunks extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final Chunk body;
+        Chunks(int from, int to, Chunk body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                body.run(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Chunks(from, middle, body), new Chunks(middle, to, body));
+        }
+    }
+
+    private static long bound(Object value) {
+        if (!(value instanceof BigInteger) || ((BigInteger) value).bitLength() > 63)
+            throw new NativeError("parallelRange bounds must be integers.");
+        return ((BigInteger) value).longValue();
+    }
+
+    private static Reduction reduction(Object value) {
+        if (value instanceof CharSequence) {
+            switch (value.toString()) {
+                case "sum": return Reduction.SUM;
+                case "min": return Reduction.MIN;
+                case "max": return Reduction.MAX;
+                case "concat": return Reduction.CONCAT;
+            }
+        }
+        throw new NativeError("parallelRange reduction must be \"sum\", \"min\", \"max\" or \"concat\".");
+    }
+
+    private static Object identity(Reduction reduction) {
+        switch (reduction) {
+            case SUM: return BigInteger.ZERO;
+            case CONCAT: return "";
+            default: return null;
+        }
+    }
+
+    private static Object check(Reduction reduction, Object value) {
+        if (reduction == Reduction.CONCAT) {
+            if (!Rope.isString(value))
+                throw new NativeError("concat reduction needs strings.");
+        } else if (!(value instanceof BigInteger || value instanceof Decimal || value instanceof BigDecimal)) {
+            throw new NativeError(reduction.name().toLowerCase() + " reduction needs numbers.");
+        }
+        return value;
+    }
+
+    private static Object combine(Interpreter interpreter, Reduction reduction, Object left, Object right) {
+        check(reduction, right);
+        switch (reduction) {
+            case SUM: return interpreter.apply(PLUS, left, right);
+            case MIN: return (Boolean) interpreter.apply(LESS, right, left) ? right : left;
+            case MAX: return (Boolean) interpreter.apply(GREATER, right, left) ? right : left;
+            default: return interpreter.apply(STAR, left, right);
+        }
+    }
+}
@@ -2,15 +2,25 @@ package newpack.language.interprettest;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Arrays;
 
 import static newpack.language.interprettest.TokenType.*;
 
 public class Parser {
     private final List<Token> tokens;
+    private final boolean lazy;
+    private final Diagnostics diagnostics;
     private int current = 0;
+    private int blocks = 0;
+    private boolean failed = false;
     Parser(List<Token> tokens) {
+        this(tokens, false, new Diagnostics(System.err));
+    }
+    // A lazy parser only brace-matches the bodies of top-level functions; syntax
+    // errors in them are reported when the body is parsed on its first call.
+    Parser(List<Token> tokens, boolean lazy, Diagnostics diagnostics) {
         this.tokens = tokens;
+        this.lazy = lazy;
+        this.diagnostics = diagnostics;
     }
     List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
@@ -19,12 +29,31 @@ public class Parser {
         }
         return statements;
     }
+    // Parses a body recorded by a lazy parser. Returns null if it has a syntax error,
+    // which has already been reported. The closing brace is left out, so a statement
+    // that fails cannot synchronize past it and report the brace as missing too.
+    static List<Stmt> parseDeferred(List<Token> deferred, Diagnostics diagnostics) {
+        List<Token> tokens = new ArrayList<>(deferred.subList(0, deferred.size() - 2));
+        tokens.add(deferred.get(deferred.size() - 1));
+        Parser parser = new Parser(tokens, false, diagnostics);
+        List<Stmt> body = new ArrayList<>();
+        parser.blocks++;
+        try {
+            while (!parser.isAtEnd())
+                body.add(parser.declaration());
+        } catch (ParserError error) {
+            return null;
+        }
+        return parser.failed ? null : body;
+    }
     private Stmt declaration() {
         try {
             if (match(FUNCTION))
                 return function("function");
             if(match(VAR))
                 return varDeclaration();
+            if (match(IMPORT))
+                return importDeclaration();
             return statement();
         } catch (ParserError error) {
             synchronize();
@@ -40,6 +69,15 @@ public class Parser {
         consume(SEMICOLON, "Expect ';' after a variable declaration");
         return new Stmt.Var(name, initializer);
     }
+    // Imports bind a global, so they only appear at the top level of a script.
+    private Stmt importDeclaration() {
+        Token keyword = previous();
+        if (blocks > 0)
+            error(keyword, "An import must be at the top level of a script");
+        Token name = consume(IDENTIFIER, "Module name expected after 'import'");
+        consume(SEMICOLON, "Expect ';' after an import");
+        return new Stmt.Import(keyword, name);
+    }
     private Stmt statement() {
         if (match(FOR))
             return forStatement();
@@ -56,6 +94,7 @@ public class Parser {
         return expressionStatement();
     }
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after for");
         Stmt initializer;
         if (match(SEMICOLON)) {
@@ -75,21 +114,7 @@ public class Parser {
         }
         consume(RIGHT_PAREN, "Expect ')' after for loop clauses");
         Stmt body = statement();
-        if (change != null) {
-            body = new Stmt.Block(
-                    Arrays.asList(
-                            body,
-                            new Stmt.Expression(change)
-                    )
-            );
-        }
-        if (condition == null)
-            condition = new Expr.Literal(TRUE);
-        body = new Stmt.While(condition, body);
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-        return body;
+        return new Stmt.For(keyword, initializer, condition, change, body);
     }
     private Stmt ifStatement() {
         consume(LEFT_PAREN, "Expect '(' after if");
@@ -117,11 +142,12 @@ public class Parser {
         return new Stmt.Return(keyword, value);
     }
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after while");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after while");
         Stmt body = statement();
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
     private Stmt expressionStatement() {
         Expr value = expression();
@@ -139,106 +165,153 @@ public class Parser {
         }
         consume(RIGHT_PAREN, "Expect ')' after parameters");
         consume(LEFT_BRACE, "Expect '}' before" + kind + " body");
-        List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body);
+        Stmt.Function function = new Stmt.Function(name, parameters);
+        // Only top-level functions can be deferred: a function inside a block may
+        // capture its locals, which the resolver has to see up front.
+        if (lazy && blocks == 0)
+            function.deferred = skipBlock();
+        else
+            function.body = block();
+        return function;
     }
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
-        while (!check(RIGHT_BRACE) && !isAtEnd())
-            statements.add(declaration());
-        consume(RIGHT_BRACE, "Right brace '}' expected");
+        blocks++;
+        try {
+            while (!check(RIGHT_BRACE) && !isAtEnd())
+                statements.add(declaration());
+            consume(RIGHT_BRACE, "Right brace '}' expected");
+        } finally {
+            blocks--;
+        }
         return statements;
     }
+    // Returns the tokens up to and including the matching right brace, followed by
+    // an EOF so they can be parsed on their own.
+    private List<Token> skipBlock() {
+        int start = current;
+        int depth = 1;
+        while (depth > 0) {
+            if (isAtEnd())
+                throw error(peek(), "Right brace '}' expected");
+            TokenType type = advance().type;
+            if (type == LEFT_BRACE)
+                depth++;
+            else if (type == RIGHT_BRACE)
+                depth--;
+        }
+        List<Token> deferred = new ArrayList<>(current - start + 1);
+        deferred.addAll(tokens.subList(start, current));
+        deferred.add(new Token(EOF, "", null, previous().line));
+        return deferred;
+    }
 
     private static class ParserError extends RuntimeException {
         
     }
-    private Expr expression()   {
-        return assignment();
-    }
-    private Expr assignment() {
-        Expr expr = or();
-        if (match(ASSIGN)) {
-            Token equals = previous();
-            Expr value = assignment();
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
-            }
-            error(equals, "Invalid target assignment");
-        }
-        return expr;
+    // Expressions are parsed by precedence climbing over tables indexed by token type:
+    // a prefix handler starts an expression at a token that can begin one, and an
+    // infix handler extends it at an operator that binds at least as tightly as the
+    // caller allows. Binary and logical operators are left-associative, assignment
+    // is right-associative, and calls bind tightest of all. A literal costs one table
+    // lookup rather than a descent through every precedence level.
+    private interface Prefix {
+        Expr parse(Parser parser, Token token);
     }
-    private Expr or() {
-        Expr expr = and();
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
+    private interface Infix {
+        Expr parse(Parser parser, Expr left, Token token);
     }
-    private Expr and() {
-        Expr expr = equality();
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+
+    private static final int ASSIGNMENT = 1;
+    private static final int LOGICAL_OR = 2;
+    private static final int LOGICAL_AND = 3;
+    private static final int EQUALITY = 4;
+    private static final int COMPARISON = 5;
+    private static final int TERM = 6;
+    private static final int FACTOR = 7;
+    private static final int EXPONENT = 8;
+    private static final int UNARY = 9;
+    private static final int CALL = 10;
+
+    private static final Prefix[] PREFIX = new Prefix[TokenType.values().length];
+    private static final Infix[] INFIX = new Infix[TokenType.values().length];
+    // How tightly each infix operator binds; 0 for tokens that are not one.
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+    static {
+        prefix(Parser::literal, FALSE, TRUE, NONE, NUMBER, STRING, INTEGER);
+        prefix((parser, token) -> new Expr.Variable(token), IDENTIFIER);
+        prefix(Parser::grouping, LEFT_PAREN);
+        prefix((parser, token) -> parser.mapLiteral(), LEFT_BRACE);
+        prefix((parser, token) -> new Expr.Unary(token, parser.expression(UNARY)), BANG, MINUS);
+        infix(ASSIGNMENT, Parser::assignment, ASSIGN);
+        infix(LOGICAL_OR, Parser::logical, OR);
+        infix(LOGICAL_AND, Parser::logical, AND);
+        infix(EQUALITY, Parser::binary, BANG_EQUAL, EQUAL);
+        infix(COMPARISON, Parser::binary, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
+        infix(TERM, Parser::binary, MINUS, PLUS);
+        infix(FACTOR, Parser::binary, SLASH, STAR);
+        infix(EXPONENT, Parser::binary, EXPON);
+        infix(CALL, (parser, left, token) -> parser.finishCall(left), LEFT_PAREN);
+    }
+    private static void prefix(Prefix handler, TokenType... types) {
+        for (TokenType type : types)
+            PREFIX[type.ordinal()] = handler;
+    }
+    private static void infix(int precedence, Infix handler, TokenType... types) {
+        for (TokenType type : types) {
+            INFIX[type.ordinal()] = handler;
+            PRECEDENCE[type.ordinal()] = precedence;
         }
-        return expr;
     }
-    private Expr equality() {
-        Expr expr = comparison();
-        while (match(BANG_EQUAL, EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+
+    private Expr expression() {
+        return expression(ASSIGNMENT);
+    }
+    // Parses an expression whose operators all bind at least as tightly as precedence.
+    private Expr expression(int precedence) {
+        Token token = peek();
+        Prefix prefix = PREFIX[token.type.ordinal()];
+        if (prefix == null)
+            throw error(token, "Expect expression.");
+        current++;
+        Expr expr = prefix.parse(this, token);
+        while (PRECEDENCE[peek().type.ordinal()] >= precedence) {
+            Token operator = tokens.get(current++);
+            expr = INFIX[operator.type.ordinal()].parse(this, expr, operator);
         }
         return expr;
     }
-    private Expr comparison() {
-        Expr expr = term();
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+
+    private static Expr literal(Parser parser, Token token) {
+        switch (token.type) {
+            case FALSE:
+                return new Expr.Literal(false);
+            case TRUE:
+                return new Expr.Literal(true);
+            case NONE:
+                return new Expr.Literal(null);
+            default:
+                return new Expr.Literal(token.literal);
         }
-        return expr;
     }
-    private Expr term() {
-        Expr expr = factor();
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private static Expr grouping(Parser parser, Token token) {
+        Expr expr = parser.expression();
+        parser.consume(RIGHT_PAREN, "Expect ')' after expression");
+        return new Expr.Grouping(expr);
     }
-    private Expr factor() {
-        Expr expr = exponent();
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = exponent();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    // Right-associative: the value takes in any assignment that follows it.
+    private static Expr assignment(Parser parser, Expr target, Token equals) {
+        Expr value = parser.expression(ASSIGNMENT);
+        if (target instanceof Expr.Variable)
+            return new Expr.Assign(((Expr.Variable) target).name, value);
+        parser.error(equals, "Invalid target assignment");
+        return target;
     }
-    private Expr exponent() {
-        Expr expr = unary();
-        while (match(EXPON)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private static Expr logical(Parser parser, Expr left, Token operator) {
+        return new Expr.Logical(left, operator, parser.expression(PRECEDENCE[operator.type.ordinal()] + 1));
     }
-    private Expr unary() {
-        if(match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
-        return call();
+    private static Expr binary(Parser parser, Expr left, Token operator) {
+        return new Expr.Binary(left, operator, parser.expression(PRECEDENCE[operator.type.ordinal()] + 1));
     }
     private Expr finishCall(Expr callee) {
         List<Expr> arguments = new ArrayList<>();
@@ -250,43 +323,25 @@ public class Parser {
         Token paren = consume(RIGHT_PAREN, "Expect ')' after function arguments");
         return new Expr.Call(callee, paren, arguments);
     }
-    private Expr call() {
-        Expr expr = primary();
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else {
-                break;
-            }
-        }
-        return expr;
-    }
-    private Expr primary() {
-        if (match(FALSE))
-            return new Expr.Literal(false);
-        if (match(TRUE))
-            return new Expr.Literal(true);
-        if (match(NONE))
-            return new Expr.Literal(null);
-        if (match(NUMBER, STRING, INTEGER))
-            return new Expr.Literal(previous().literal);
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression");
-            return new Expr.Grouping(expr);
+    private Expr mapLiteral() {
+        Token brace = previous();
+        List<Expr> keys = new ArrayList<>();
+        List<Expr> values = new ArrayList<>();
+        if (!check(RIGHT_BRACE)) {
+            do {
+                keys.add(expression());
+                consume(COLON, "Expect ':' after map key");
+                values.add(expression());
+            } while (match(COMMA));
         }
-        throw error(peek(), "Expect expression.");
+        consume(RIGHT_BRACE, "Expect '}' after map entries");
+        return new Expr.MapLiteral(brace, keys, values);
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
         return false;
     }
@@ -319,7 +374,8 @@ public class Parser {
         return tokens.get(current - 1);
     }
     private ParserError error(Token token, String message) {
-        Language.error(token, message);
+        failed = true;
+        diagnostics.error(token, message);
         return new ParserError();
     }
     private void synchronize() {
@@ -331,6 +387,7 @@ public class Parser {
                 case CLASS:
                 case FUNCTION:
                 case VAR:
+                case IMPORT:
                 case FOR:
                 case DO:
                 case IF:
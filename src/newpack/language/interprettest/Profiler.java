@@ -0,0 +1,191 @@
+package newpack.language.interprettest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+// Script-level sampling profiler. The interpreter thread keeps a shadow stack of
+// script functions and the line each one is executing; a daemon thread samples it
+// at a fixed interval. Call counts are exact, times are estimated from the samples.
+class Profiler {
+    private static final class Frame {
+        Stmt.Function function;
+        int line;
+    }
+
+    private static final class Stats {
+        final String name;
+        final int line;
+        long calls;
+        long inclusiveSamples;
+        long exclusiveSamples;
+        Stats(String name, int line) {
+            this.name = name;
+            this.line = line;
+        }
+    }
+
+    private final long intervalNanos;
+    private final Map<Stmt.Function, Stats> functions = new IdentityHashMap<>();
+    private final Stats script = new Stats("<script>", 0);
+    private Frame[] frames = new Frame[64];
+    private volatile int depth = 1;
+    private long[] lineCalls = new long[256];
+
+    private final Map<String, Long> stacks = new HashMap<>();
+    private final Map<Integer, long[]> lineSamples = new HashMap<>();
+    private long samples = 0;
+    private long startNanos;
+    private long elapsedNanos;
+    private volatile boolean running;
+    private Thread sampler;
+
+    Profiler(long intervalNanos) {
+        this.intervalNanos = intervalNanos;
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = new Frame();
+    }
+
+    void start() {
+        running = true;
+        startNanos = System.nanoTime();
+        sampler = new Thread(() -> {
+            while (running) {
+                LockSupport.parkNanos(intervalNanos);
+                sample();
+            }
+        }, "script-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    void enter(Stmt.Function function) {
+        Stats stats = functions.get(function);
+        if (stats == null) {
+            stats = new Stats(function.name.lexeme, function.name.line);
+            synchronized (this) {
+                functions.put(function, stats);
+            }
+        }
+        stats.calls++;
+        int top = depth;
+        if (top == frames.length)
+            grow();
+        Frame frame = frames[top];
+        frame.function = function;
+        frame.line = function.name.line;
+        depth = top + 1;
+    }
+
+    void exit() {
+        depth = depth - 1;
+    }
+
+    void line(int line) {
+        frames[depth - 1].line = line;
+    }
+
+    void call(int line) {
+        frames[depth - 1].line = line;
+        if (line >= lineCalls.length)
+            lineCalls = Arrays.copyOf(lineCalls, Math.max(line + 1, lineCalls.length * 2));
+        lineCalls[line]++;
+    }
+
+    private synchronized void grow() {
+        Frame[] grown = Arrays.copyOf(frames, frames.length * 2);
+        for (int i = frames.length; i < grown.length; i++)
+            grown[i] = new Frame();
+        frames = grown;
+    }
+
+    // Runs on the sampler thread. The shadow stack is read without locking, so a
+    // sample taken in the middle of a call may be slightly off; it never blocks the
+    // interpreter.
+    private synchronized void sample() {
+        Frame[] snapshot = frames;
+        int top = Math.min(depth, snapshot.length);
+        StringBuilder stack = new StringBuilder(script.name);
+        List<Stats> seen = new ArrayList<>(top);
+        seen.add(script);
+        for (int i = 1; i < top; i++) {
+            Stmt.Function function = snapshot[i].function;
+            Stats stats = function == null ? null : functions.get(function);
+            if (stats == null)
+                continue;
+            stack.append(';').append(stats.name).append(':').append(stats.line);
+            if (!seen.contains(stats))
+                seen.add(stats);
+        }
+        for (Stats stats : seen)
+            stats.inclusiveSamples++;
+        seen.get(seen.size() - 1).exclusiveSamples++;
+        stacks.merge(stack.toString(), 1L, Long::sum);
+        List<Integer> lines = new ArrayList<>(top);
+        for (int i = 0; i < top; i++) {
+            int line = snapshot[i].line;
+            if (line > 0 && !lines.contains(line)) {
+                lines.add(line);
+                long[] counts = lineSamples.computeIfAbsent(line, key -> new long[2]);
+                counts[0]++;
+                if (i == top - 1)
+                    counts[1]++;
+            }
+        }
+        samples++;
+    }
+
+    synchronized void writeCollapsed(Path path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Long> stack : stacks.entrySet())
+                writer.println(stack.getKey() + " " + stack.getValue());
+        }
+    }
+
+    synchronized void report(PrintStream out) {
+        double millisPerSample = samples == 0 ? 0 : elapsedNanos / 1e6 / samples;
+        List<Stats> all = new ArrayList<>(functions.values());
+        all.add(script);
+        all.sort((a, b) -> Long.compare(b.inclusiveSamples, a.inclusiveSamples));
+        out.printf("%nProfile: %d samples over %.1f ms%n", samples, elapsedNanos / 1e6);
+        out.printf("%-32s %10s %14s %14s%n", "function", "calls", "inclusive ms", "exclusive ms");
+        for (Stats stats : all) {
+            out.printf("%-32s %10d %14.1f %14.1f%n", stats.name + (stats.line > 0 ? ":" + stats.line : ""),
+                    stats.calls, stats.inclusiveSamples * millisPerSample, stats.exclusiveSamples * millisPerSample);
+        }
+        List<Integer> lines = new ArrayList<>(lineSamples.keySet());
+        for (int line = 1; line < lineCalls.length; line++) {
+            if (lineCalls[line] > 0 && !lineSamples.containsKey(line))
+                lines.add(line);
+        }
+        lines.sort((a, b) -> Long.compare(lineSamples.getOrDefault(b, new long[2])[0],
+                lineSamples.getOrDefault(a, new long[2])[0]));
+        out.printf("%-8s %10s %14s %14s%n", "line", "calls", "inclusive ms", "exclusive ms");
+        for (int line : lines) {
+            long[] counts = lineSamples.getOrDefault(line, new long[2]);
+            long calls = line < lineCalls.length ? lineCalls[line] : 0;
+            out.printf("%-8d %10d %14.1f %14.1f%n", line, calls, counts[0] * millisPerSample,
+                    counts[1] * millisPerSample);
+        }
+    }
+}
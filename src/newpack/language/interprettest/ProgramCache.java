@@ -0,0 +1,56 @@
+package newpack.language.interprettest;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiled programs of this process, keyed by a hash of their source, so the daemon's
+// scripts and every imported module are scanned, parsed and resolved once however
+// many runs use them. The interpreter never changes a resolved tree, so runs on other
+// threads can execute the same one.
+final class ProgramCache {
+    private static final int CACHED_PROGRAMS = 256;
+
+    private static final Map<String, List<Stmt>> programs = new LinkedHashMap<>(CACHED_PROGRAMS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Stmt>> eldest) {
+            return size() > CACHED_PROGRAMS;
+        }
+    };
+
+    private ProgramCache() {
+    }
+
+    // Programs with syntax errors are not cached, so every run reports them.
+    static List<Stmt> compile(byte[] source, boolean lazyFunctions, Diagnostics diagnostics) {
+        String key = hash(source) + (lazyFunctions ? "/lazy" : "");
+        List<Stmt> statements;
+        synchronized (programs) {
+            statements = programs.get(key);
+        }
+        if (statements != null)
+            return statements;
+        statements = Language.compile(new String(source, Charset.defaultCharset()), lazyFunctions, diagnostics);
+        if (statements != null) {
+            synchronized (programs) {
+                programs.put(key, statements);
+            }
+        }
+        return statements;
+    }
+
+    private static String hash(byte[] source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package newpack.language.interprettest;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Free-variable analysis run between parsing and interpreting. A function declared
+// inside a local scope captures only the enclosing locals its body (or a function
+// nested in it) refers to, instead of the whole environment chain. Captured locals
+// that are reassigned, redeclared or used before their declaration are boxed so the
+// closure and the declaring scope keep sharing them; everything else is copied.
+// Names that are not local anywhere are globals and stay dynamic lookups.
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final class Capture {
+        final String name;
+        final int depth;
+        Capture(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static final class Binding {
+        int declarations;
+        boolean declared;
+        boolean assigned;
+        boolean captured;
+        boolean forward;
+        int uses;
+        boolean boxed() {
+            return captured && (assigned || forward || declarations > 1);
+        }
+    }
+
+    // One scope per runtime Environment. A function gets two: the closure it
+    // captures into, whose parent is where it is declared, and its body.
+    private static final class Scope {
+        final Scope parent;
+        final Stmt.Function closureOf;
+        final Map<String, Binding> bindings = new HashMap<>();
+        Scope(Scope parent, Stmt.Function closureOf) {
+            this.parent = parent;
+            this.closureOf = closureOf;
+        }
+        Binding declare(String name) {
+            Binding binding = bindings.computeIfAbsent(name, key -> new Binding());
+            binding.declarations++;
+            return binding;
+        }
+    }
+
+    // The counted loop header itself uses the induction variable three times; any
+    // further use means the body or a closure can see it.
+    private static final int COUNTED_HEADER_USES = 3;
+
+    private final Map<Stmt.Var, Binding> variables = new HashMap<>();
+    private final Map<Stmt.Function, Binding> functions = new HashMap<>();
+    private final Map<Stmt.Function, List<Binding>> parameters = new HashMap<>();
+    private final Map<Stmt.For, Binding> loops = new HashMap<>();
+    private Scope scope = null;
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements)
+            resolve(statement);
+        for (Map.Entry<Stmt.Var, Binding> variable : variables.entrySet())
+            variable.getKey().boxed = variable.getValue().boxed();
+        for (Map.Entry<Stmt.Function, Binding> function : functions.entrySet())
+            function.getKey().boxed = function.getValue().boxed();
+        for (Map.Entry<Stmt.Function, List<Binding>> function : parameters.entrySet()) {
+            List<Binding> bindings = function.getValue();
+            boolean[] boxed = new boolean[bindings.size()];
+            for (int i = 0; i < boxed.length; i++)
+                boxed[i] = bindings.get(i).boxed();
+            function.getKey().boxedParams = boxed;
+        }
+        for (Map.Entry<Stmt.For, Binding> loop : loops.entrySet()) {
+            Binding induction = loop.getValue();
+            loop.getKey().counted = !induction.boxed();
+            loop.getKey().exposed = induction.captured || induction.uses > COUNTED_HEADER_USES;
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    // Declarations are collected up front so that a closure referring to a local
+    // declared further down the same scope sees it as that local.
+    private Scope beginScope(Scope parent, List<Stmt> statements) {
+        Scope scope = new Scope(parent, null);
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var)
+                variables.put((Stmt.Var) statement, scope.declare(((Stmt.Var) statement).name.lexeme));
+            else if (statement instanceof Stmt.Function)
+                functions.put((Stmt.Function) statement, scope.declare(((Stmt.Function) statement).name.lexeme));
+        }
+        return scope;
+    }
+
+    // Returns the scope holding the name, or null for a global. Every function
+    // boundary crossed on the way captures the name into its closure.
+    private Scope find(Scope from, String name) {
+        for (Scope scope = from; scope != null; scope = scope.parent) {
+            if (scope.bindings.containsKey(name))
+                return scope;
+            if (scope.closureOf != null) {
+                Scope outer = find(scope.parent, name);
+                if (outer == null)
+                    return null;
+                Binding binding = outer.bindings.get(name);
+                binding.captured = true;
+                if (!binding.declared)
+                    binding.forward = true;
+                scope.bindings.put(name, binding);
+                scope.closureOf.captures.add(new Capture(name, distance(scope.parent, outer)));
+                return scope;
+            }
+        }
+        return null;
+    }
+    private static int distance(Scope from, Scope to) {
+        int distance = 0;
+        for (Scope scope = from; scope != to; scope = scope.parent)
+            distance++;
+        return distance;
+    }
+
+    // A block that declares nothing cannot be told apart from its enclosing scope,
+    // so it runs there and gets no environment of its own.
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        Scope block = beginScope(scope, stmt.statements);
+        if (block.bindings.isEmpty()) {
+            stmt.scopeless = true;
+            for (Stmt statement : stmt.statements)
+                resolve(statement);
+            return null;
+        }
+        stmt.locals = block.bindings.size();
+        scope = block;
+        for (Stmt statement : stmt.statements)
+            resolve(statement);
+        scope = scope.parent;
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        Scope enclosing = scope;
+        if (stmt.initializer instanceof Stmt.Var) {
+            scope = beginScope(scope, Collections.singletonList(stmt.initializer));
+            if (countedShape(stmt))
+                loops.put(stmt, scope.bindings.get(((Stmt.Var) stmt.initializer).name.lexeme));
+        }
+        if (stmt.initializer != null)
+            resolve(stmt.initializer);
+        if (stmt.condition != null)
+            resolve(stmt.condition);
+        resolve(stmt.body);
+        if (stmt.increment != null)
+            resolve(stmt.increment);
+        scope = enclosing;
+        return null;
+    }
+
+    // Recognises `var i = start; i < bound; i = i + step` with an integer step and a
+    // bound that is a literal or a variable, so evaluating it again has no effect.
+    private static boolean countedShape(Stmt.For stmt) {
+        String name = ((Stmt.Var) stmt.initializer).name.lexeme;
+        if (((Stmt.Var) stmt.initializer).initialization == null)
+            return false;
+        if (!(stmt.condition instanceof Expr.Binary) || !(stmt.increment instanceof Expr.Assign))
+            return false;
+        Expr.Binary condition = (Expr.Binary) stmt.condition;
+        switch (condition.operator.type) {
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL:
+                break;
+            default:
+                return false;
+        }
+        if (!isVariable(condition.left, name)
+                || !(condition.right instanceof Expr.Literal || condition.right instanceof Expr.Variable))
+            return false;
+        Expr.Assign increment = (Expr.Assign) stmt.increment;
+        if (!increment.name.lexeme.equals(name) || !(increment.value instanceof Expr.Binary))
+            return false;
+        Expr.Binary next = (Expr.Binary) increment.value;
+        if (!isVariable(next.left, name) || !(next.right instanceof Expr.Literal)
+                || !(((Expr.Literal) next.right).value instanceof BigInteger))
+            return false;
+        BigInteger step = (BigInteger) ((Expr.Literal) next.right).value;
+        if (step.bitLength() > 62)
+            return false;
+        if (next.operator.type == TokenType.PLUS)
+            stmt.step = step.longValue();
+        else if (next.operator.type == TokenType.MINUS)
+            stmt.step = -step.longValue();
+        else
+            return false;
+        return true;
+    }
+    private static boolean isVariable(Expr expr, String name) {
+        return expr instanceof Expr.Variable && ((Expr.Variable) expr).name.lexeme.equals(name);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    // The function value is created before its name is defined, so a function
+    // that refers to itself captures a forward reference.
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        stmt.captures = new ArrayList<>();
+        // Deferred bodies are top-level, so they capture nothing; they are resolved
+        // on their own once parsed.
+        if (stmt.body == null)
+            return null;
+        Scope enclosing = scope;
+        Scope closure = new Scope(enclosing, stmt);
+        Scope body = beginScope(closure, stmt.body);
+        List<Binding> params = new ArrayList<>();
+        for (Token param : stmt.params) {
+            Binding binding = body.declare(param.lexeme);
+            binding.declared = true;
+            params.add(binding);
+        }
+        parameters.put(stmt, params);
+        stmt.locals = body.bindings.size();
+        scope = body;
+        for (Stmt statement : stmt.body)
+            resolve(statement);
+        scope = enclosing;
+        declared(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null)
+            resolve(stmt.elseBranch);
+        return null;
+    }
+
+    // Imports are top-level, so the name is a global.
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null)
+            resolve(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initialization != null)
+            resolve(stmt.initialization);
+        declared(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    private void declared(Token name) {
+        if (scope != null)
+            scope.bindings.get(name.lexeme).declared = true;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        Scope holder = find(scope, expr.name.lexeme);
+        if (holder != null) {
+            Binding binding = holder.bindings.get(expr.name.lexeme);
+            binding.assigned = true;
+            binding.uses++;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments)
+            resolve(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    // The body only refers to its parameter slots and to globals.
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        for (Expr argument : expr.arguments)
+            resolve(argument);
+        resolve(expr.body);
+        return null;
+    }
+
+    @Override
+    public Void visitParameterExpr(Expr.Parameter expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            resolve(expr.keys.get(i));
+            resolve(expr.values.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        Scope holder = find(scope, expr.name.lexeme);
+        if (holder != null)
+            holder.bindings.get(expr.name.lexeme).uses++;
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+package newpack.language.interprettest;
+
+// A string built by repeated concatenation. Ropes share one append buffer and each
+// one sees only its own prefix of it, so appending to the newest rope never copies
+// what came before. The text is only turned into a String when someone asks for it.
+final class Rope implements CharSequence {
+    private static final int SMALL = 64;
+
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    private Rope(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        int total = left.length() + right.length();
+        if (total < SMALL)
+            return left.toString() + right.toString();
+        if (left instanceof Rope) {
+            Rope rope = (Rope) left;
+            synchronized (rope.buffer) {
+                if (rope.buffer.length() == rope.length) {
+                    rope.buffer.append(right);
+                    return new Rope(rope.buffer, total);
+                }
+            }
+        }
+        StringBuilder buffer = new StringBuilder(Math.max(total * 2, SMALL * 2));
+        buffer.append(left).append(right);
+        return new Rope(buffer, total);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException(index);
+        synchronized (buffer) {
+            return buffer.charAt(index);
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            synchronized (buffer) {
+                text = buffer.substring(0, length);
+            }
+            flat = text;
+        }
+        return text;
+    }
+}
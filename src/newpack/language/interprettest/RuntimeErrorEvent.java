@@ -0,0 +1,20 @@
+package newpack.language.interprettest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("newpack.language.RuntimeError")
+@Label("Script Runtime Error")
+@Description("A runtime error reported to the user")
+@Category("Interpreter")
+@StackTrace(false)
+final class RuntimeErrorEvent extends jdk.jfr.Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+}
@@ -1,16 +1,37 @@
 package newpack.language.interprettest;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.math.*;
 
 import static newpack.language.interprettest.TokenType.*;
 
+// Sources of PARALLEL_CHARS or more are scanned in parallel when the common pool has
+// more than one worker. Tokens never span a line break outside a string, so the source
+// is cut just after line breaks, into ranges that each start a token on a known line
+// and are scanned on their own. Whether a line break is in a string or a comment
+// depends on everything before it; that is the state of a three-state machine, which
+// every chunk runs from each state it could start in, in parallel, so only composing
+// those results is sequential. The tokens and errors are the sequential scanner's.
 class Scanner {
+    private static final int PARALLEL_CHARS = 1 << 22;
+    private static final int CHUNK_CHARS = 1 << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+    // Outside any token, in a string literal, and in a comment.
+    private static final int CODE = 0;
+    private static final int STRING_STATE = 1;
+    private static final int COMMENT = 2;
+
     private final String source;
+    private final Diagnostics diagnostics;
     private final List<Token> tokens = new ArrayList<>();
+    private final int end;
     private int start = 0;
     private int current = 0;
     private int line = 1;
@@ -34,17 +55,150 @@ class Scanner {
         keywords.put("super", SUPER);
         keywords.put("true", TRUE);
         keywords.put("false", FALSE);
+        keywords.put("import", IMPORT);
     }
     Scanner(String source) {
+        this(source, new Diagnostics(System.err));
+    }
+    Scanner(String source, Diagnostics diagnostics) {
+        this(source, 0, source.length(), 1, diagnostics);
+    }
+    // Scans the tokens that start in [from, to); from is a token start on the given line.
+    private Scanner(String source, int from, int to, int line, Diagnostics diagnostics) {
         this.source = source;
+        this.diagnostics = diagnostics;
+        this.current = from;
+        this.end = to;
+        this.line = line;
     }
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
+        if (end - current >= PARALLEL_CHARS && ForkJoinPool.getCommonPoolParallelism() > 1)
+            return scanParallel();
+        scanRange();
+        tokens.add(new Token(EOF, "", null, line));
+        return tokens;
+    }
+    private void scanRange() {
+        while (current < end) {
             start = current;
             scanToken();
         }
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+    }
+
+    private List<Token> scanParallel() {
+        int workers = ForkJoinPool.getCommonPoolParallelism();
+        int chunks = Math.max(2, Math.min(source.length() / CHUNK_CHARS, workers * CHUNKS_PER_THREAD));
+        int[] offsets = new int[chunks + 1];
+        for (int i = 0; i <= chunks; i++)
+            offsets[i] = (int) ((long) source.length() * i / chunks);
+
+        // exits[i][s] is the state chunk i ends in when it starts in state s.
+        int[][] exits = new int[chunks][];
+        int[] newlines = new int[chunks];
+        List<ForkJoinTask<?>> runs = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int chunk = i;
+            runs.add(ForkJoinTask.adapt(() -> {
+                int code = CODE, string = STRING_STATE, comment = COMMENT;
+                int count = 0;
+                int j = offsets[chunk];
+                int to = offsets[chunk + 1];
+                // The three runs soon meet, at the first comment or line break, and
+                // from then on one is enough.
+                for (; j < to && (code != string || code != comment); j++) {
+                    char c = source.charAt(j);
+                    if (c == '\n')
+                        count++;
+                    code = next(code, c);
+                    string = next(string, c);
+                    comment = next(comment, c);
+                }
+                boolean met = code == string && code == comment;
+                for (; j < to; j++) {
+                    char c = source.charAt(j);
+                    if (c == '\n')
+                        count++;
+                    code = next(code, c);
+                }
+                exits[chunk] = met ? new int[] { code, code, code } : new int[] { code, string, comment };
+                newlines[chunk] = count;
+            }).fork());
+        }
+        for (ForkJoinTask<?> run : runs)
+            run.join();
+
+        // Each range starts after the first line break past its chunk's offset that
+        // leaves the machine outside strings and comments. The search stops at the next
+        // offset, whose state the chunk runs already give, so a long string or comment
+        // drops the cuts inside it rather than being walked again for each of them.
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        starts.add(0);
+        lines.add(1);
+        int state = CODE;
+        int line = 1;
+        for (int i = 0; i < chunks - 1; i++) {
+            state = exits[i][state];
+            line += newlines[i];
+            int position = offsets[i + 1];
+            int limit = Math.min(offsets[i + 2], source.length() - 1);
+            int walkState = state;
+            int walkLine = line;
+            boolean safe = false;
+            while (position < limit && !safe) {
+                char c = source.charAt(position++);
+                walkState = next(walkState, c);
+                if (c == '\n') {
+                    walkLine++;
+                    safe = walkState == CODE;
+                }
+            }
+            if (safe) {
+                starts.add(position);
+                lines.add(walkLine);
+            }
+        }
+        starts.add(source.length());
+
+        List<ForkJoinTask<Scanner>> scans = new ArrayList<>(starts.size() - 1);
+        List<ByteArrayOutputStream> errors = new ArrayList<>(starts.size() - 1);
+        for (int i = 0; i < starts.size() - 1; i++) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            errors.add(buffer);
+            Scanner range = new Scanner(source, starts.get(i), starts.get(i + 1), lines.get(i),
+                    new Diagnostics(new PrintStream(buffer, true)));
+            scans.add(ForkJoinTask.adapt(() -> {
+                range.scanRange();
+                return range;
+            }).fork());
+        }
+        List<Scanner> ranges = new ArrayList<>(scans.size());
+        int count = 1;
+        for (ForkJoinTask<Scanner> scan : scans) {
+            ranges.add(scan.join());
+            count += ranges.get(ranges.size() - 1).tokens.size();
+        }
+        List<Token> all = new ArrayList<>(count);
+        for (int i = 0; i < ranges.size(); i++) {
+            all.addAll(ranges.get(i).tokens);
+            if (ranges.get(i).diagnostics.hadError) {
+                diagnostics.err.print(errors.get(i).toString());
+                diagnostics.hadError = true;
+            }
+        }
+        all.add(new Token(EOF, "", null, ranges.get(ranges.size() - 1).line));
+        return all;
+    }
+
+    private static int next(int state, char c) {
+        switch (state) {
+            case CODE:
+                return c == '"' ? STRING_STATE : c == '#' ? COMMENT : CODE;
+            case STRING_STATE:
+                return c == '"' ? CODE : STRING_STATE;
+            default:
+                return c == '\n' ? CODE : COMMENT;
+        }
     }
     private boolean isAtEnd() {
         if (current >= source.length())
@@ -59,6 +213,7 @@ class Scanner {
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
             case ',': addToken(COMMA);  break;
+            case ':': addToken(COLON); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
             case '+': addToken(PLUS); break;
@@ -100,7 +255,7 @@ class Scanner {
                 else if (isAlphaNumeric(c)) {
                     identifier();
                 }else
-                    Language.error(line, "Unexpected character");
+                    diagnostics.error(line, "Unexpected character");
                 break;
         }
     }
@@ -126,7 +281,7 @@ class Scanner {
             advance();
         }
         if(isAtEnd()) {
-            Language.error(line, "A string literal hasn't been terminiated");
+            diagnostics.error(line, "A string literal hasn't been terminiated");
             return;
         }
         advance();
@@ -145,7 +300,7 @@ class Scanner {
             advance();
             while (isDigit(peek()))
                 advance();
-            addToken(NUMBER, new BigDecimal(source.substring(start, current)));
+            addToken(NUMBER, Decimal.of(new BigDecimal(source.substring(start, current))));
         }
         else
             addToken(INTEGER, new BigInteger(source.substring(start, current)));
@@ -0,0 +1,22 @@
+package newpack.language.interprettest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("newpack.language.ScriptCall")
+@Label("Script Function Call")
+@Description("A call to a script-level function")
+@Category("Interpreter")
+@Threshold("10 ms")
+@StackTrace(false)
+final class ScriptCallEvent extends jdk.jfr.Event {
+    @Label("Function")
+    String function;
+
+    @Label("Declaration Line")
+    int line;
+}
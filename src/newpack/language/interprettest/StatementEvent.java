@@ -0,0 +1,66 @@
+package newpack.language.interprettest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("newpack.language.Statement")
+@Label("Long Running Statement")
+@Description("A script statement that ran longer than the threshold")
+@Category("Interpreter")
+@Threshold("20 ms")
+@StackTrace(false)
+final class StatementEvent extends jdk.jfr.Event {
+    @Label("Statement")
+    String statement;
+
+    @Label("Line")
+    int line;
+
+    // Best-effort source line of a statement; most nodes only carry tokens on
+    // their expressions. Only called once an event is about to be committed.
+    static int line(Stmt stmt) {
+        if (stmt instanceof Stmt.Var)
+            return ((Stmt.Var) stmt).name.line;
+        if (stmt instanceof Stmt.Function)
+            return ((Stmt.Function) stmt).name.line;
+        if (stmt instanceof Stmt.Return)
+            return ((Stmt.Return) stmt).expression.line;
+        if (stmt instanceof Stmt.Expression)
+            return line(((Stmt.Expression) stmt).expression);
+        if (stmt instanceof Stmt.Print)
+            return line(((Stmt.Print) stmt).expression);
+        if (stmt instanceof Stmt.If)
+            return line(((Stmt.If) stmt).condition);
+        if (stmt instanceof Stmt.While)
+            return ((Stmt.While) stmt).keyword.line;
+        if (stmt instanceof Stmt.For)
+            return ((Stmt.For) stmt).keyword.line;
+        if (stmt instanceof Stmt.Block && !((Stmt.Block) stmt).statements.isEmpty())
+            return line(((Stmt.Block) stmt).statements.get(0));
+        return 0;
+    }
+
+    static int line(Expr expr) {
+        if (expr instanceof Expr.Binary)
+            return ((Expr.Binary) expr).operator.line;
+        if (expr instanceof Expr.Logical)
+            return ((Expr.Logical) expr).operator.line;
+        if (expr instanceof Expr.Unary)
+            return ((Expr.Unary) expr).operator.line;
+        if (expr instanceof Expr.Call)
+            return ((Expr.Call) expr).paren.line;
+        if (expr instanceof Expr.Assign)
+            return ((Expr.Assign) expr).name.line;
+        if (expr instanceof Expr.Variable)
+            return ((Expr.Variable) expr).name.line;
+        if (expr instanceof Expr.MapLiteral)
+            return ((Expr.MapLiteral) expr).brace.line;
+        if (expr instanceof Expr.Grouping)
+            return line(((Expr.Grouping) expr).expression);
+        return 0;
+    }
+}
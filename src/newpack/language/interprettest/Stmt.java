@@ -6,8 +6,10 @@ abstract class Stmt {
 interface Visitor<R> {
     R visitBlockStmt(Block stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitForStmt(For stmt);
     R visitFunctionStmt(Function stmt);
     R visitIfStmt(If stmt);
+    R visitImportStmt(Import stmt);
     R visitPrintStmt(Print stmt);
     R visitReturnStmt(Return stmt);
     R visitVarStmt(Var stmt);
@@ -23,6 +25,8 @@ interface Visitor<R> {
     return visitor.visitBlockStmt(this);
     }
     final List<Stmt> statements;
+    boolean scopeless;
+    int locals;
     }
  static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -35,11 +39,32 @@ interface Visitor<R> {
     }
     final Expr expression;
     }
+ static class For extends Stmt {
+    For(Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body) {
+    this.keyword = keyword;
+    this.initializer = initializer;
+    this.condition = condition;
+    this.increment = increment;
+    this.body = body;
+    }
+
+    @Override
+ <R> R accept(Visitor<R> visitor) {
+    return visitor.visitForStmt(this);
+    }
+    final Token keyword;
+    final Stmt initializer;
+    final Expr condition;
+    final Expr increment;
+    final Stmt body;
+    boolean counted;
+    boolean exposed;
+    long step;
+    }
  static class Function extends Stmt {
-    Function(Token name, List<Token> params, List<Stmt> body) {
+    Function(Token name, List<Token> params) {
     this.name = name;
     this.params = params;
-    this.body = body;
     }
 
     @Override
@@ -48,7 +73,12 @@ interface Visitor<R> {
     }
     final Token name;
     final List<Token> params;
-    final List<Stmt> body;
+    List<Stmt> body;
+    List<Token> deferred;
+    boolean boxed;
+    boolean[] boxedParams;
+    List<Resolver.Capture> captures;
+    int locals;
     }
  static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -65,6 +95,19 @@ interface Visitor<R> {
     final Stmt thenBranch;
     final Stmt elseBranch;
     }
+ static class Import extends Stmt {
+    Import(Token keyword, Token name) {
+    this.keyword = keyword;
+    this.name = name;
+    }
+
+    @Override
+ <R> R accept(Visitor<R> visitor) {
+    return visitor.visitImportStmt(this);
+    }
+    final Token keyword;
+    final Token name;
+    }
  static class Print extends Stmt {
     Print(Expr expression) {
     this.expression = expression;
@@ -101,9 +144,11 @@ interface Visitor<R> {
     }
     final Token name;
     final Expr initialization;
+    boolean boxed;
     }
  static class While extends Stmt {
-    While(Expr condition, Stmt body) {
+    While(Token keyword, Expr condition, Stmt body) {
+    this.keyword = keyword;
     this.condition = condition;
     this.body = body;
     }
@@ -112,6 +157,7 @@ interface Visitor<R> {
  <R> R accept(Visitor<R> visitor) {
     return visitor.visitWhileStmt(this);
     }
+    final Token keyword;
     final Expr condition;
     final Stmt body;
     }
@@ -0,0 +1,162 @@
+package newpack.language.interprettest;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Gate in front of the JFR events. Loading any jdk.jfr.Event subclass initialises
+// JFR's metadata, which costs a few hundred milliseconds of startup, so the event
+// classes are only touched once a recorder exists. Until then every hook costs one
+// volatile read. A recording started with the JVM is seen at startup; one started
+// later, e.g. through jcmd, is picked up by a listener that a background thread
+// registers once short scripts would already have finished. Registering it at startup
+// would cost those scripts about 30 ms. The listener also turns the hooks off again
+// while no recording is running.
+final class Telemetry {
+    private static final long WATCH_DELAY_NANOS = 500_000_000L;
+
+    private static final Object STATE = new Object();
+
+    static volatile boolean enabled = false;
+    private static boolean started = false;
+    private static volatile Thread watcher;
+    private static FlightRecorderListener listener;
+
+    private Telemetry() {
+    }
+
+    static synchronized void start() {
+        if (started)
+            return;
+        started = true;
+        if (FlightRecorder.isInitialized()) {
+            listen();
+            return;
+        }
+        watcher = new Thread(Telemetry::watch, "telemetry-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private static void watch() {
+        long deadline = System.nanoTime() + WATCH_DELAY_NANOS;
+        for (long left = WATCH_DELAY_NANOS; left > 0 && watcher != null; left = deadline - System.nanoTime())
+            LockSupport.parkNanos(left);
+        synchronized (Telemetry.class) {
+            if (watcher == null)
+                return;
+            listen();
+        }
+    }
+
+    private static synchronized void listen() {
+        listener = new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                update(recorder);
+            }
+
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                update(FlightRecorder.getFlightRecorder());
+            }
+        };
+        FlightRecorder.addListener(listener);
+    }
+
+    // Stops watching for a recording, for callers that load the interpreter in a class
+    // loader they close afterwards: neither the thread nor the listener may outlive it.
+    static void stop() {
+        Thread thread;
+        synchronized (Telemetry.class) {
+            thread = watcher;
+            watcher = null;
+            if (listener != null) {
+                FlightRecorder.removeListener(listener);
+                listener = null;
+            }
+        }
+        if (thread == null)
+            return;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException error) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // Called by JFR with its own locks held, so it takes none that is held while
+    // calling into JFR.
+    private static void update(FlightRecorder recorder) {
+        synchronized (STATE) {
+            boolean running = false;
+            for (Recording recording : recorder.getRecordings())
+                running |= recording.getState() == RecordingState.RUNNING;
+            if (running)
+                CountersEvent.register();
+            enabled = running;
+        }
+    }
+
+    static Object beginCall() {
+        ScriptCallEvent event = new ScriptCallEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endCall(Object started, Stmt.Function declaration) {
+        ScriptCallEvent event = (ScriptCallEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = declaration.name.lexeme;
+            event.line = declaration.name.line;
+            event.commit();
+        }
+    }
+
+    static Object beginStatement() {
+        StatementEvent event = new StatementEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endStatement(Object started, Stmt statement) {
+        StatementEvent event = (StatementEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.statement = statement.getClass().getSimpleName();
+            event.line = StatementEvent.line(statement);
+            event.commit();
+        }
+    }
+
+    static Object beginNumberOperation() {
+        NumberOperationEvent event = new NumberOperationEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endNumberOperation(Object started, Token operator, Object left, Object right) {
+        ((NumberOperationEvent) started).commit(operator, left, right);
+    }
+
+    static void runtimeError(RuntimeError error) {
+        if (!enabled)
+            return;
+        RuntimeErrorEvent event = new RuntimeErrorEvent();
+        if (event.isEnabled()) {
+            event.message = error.getMessage();
+            event.line = error.token.line;
+            event.commit();
+        }
+    }
+}
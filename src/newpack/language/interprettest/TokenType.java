@@ -2,7 +2,7 @@ package newpack.language.interprettest;
 
 enum TokenType {
     // Single character tokens
-    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, COMMA, HASH,
+    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, COMMA, HASH, COLON,
     DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR, PERCENT, EXPON,
 
     // One or two character tokens
@@ -16,7 +16,7 @@ enum TokenType {
 
     //Keywords
     AND, CLASS, ELSE, FALSE, FUNCTION, FOR, IF, NONE, OR,
-    PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE, DO,
+    PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE, DO, IMPORT,
 
 
     EOF
@@ -0,0 +1,356 @@
+package newpack.language.interprettest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Flow-sensitive type inference over the resolved tree. It tracks what each variable
+// can hold at each point of a function body (or of the top level) and annotates
+// every Expr.Binary whose operands are proven to be both integers or both strings,
+// so the interpreter can skip the dynamic type dispatch for it. Anything it cannot
+// prove stays UNKNOWN and takes the dynamic path.
+//
+// What is not tracked: globals inside functions (any call can change them), globals
+// at the top level across a call, boxed locals (a closure can change them), and
+// parameters, except those of inlined calls. Loops are iterated to a fixpoint before
+// anything in them is annotated.
+class TypeInference implements Expr.Visitor<Integer>, Stmt.Visitor<Void> {
+    static final int UNKNOWN = 0;
+    static final int INTEGER = 1;
+    static final int DECIMAL = 2;
+    static final int STRING = 3;
+    static final int BOOLEAN = 4;
+    static final int NONE = 5;
+    // Declared further down the scope; lookups fall through to enclosing scopes.
+    private static final int UNDECLARED = -1;
+    // Captured and changed by a closure, so never known.
+    private static final int BOXED = -2;
+
+    // Innermost scope last. At the top level the first scope is the globals.
+    private List<Map<String, Integer>> scopes = new ArrayList<>();
+    private boolean globals = true;
+    private int dry = 0;
+    // The argument types of the inlined call being inferred.
+    private int[] frame;
+
+    void infer(List<Stmt> statements) {
+        scopes.add(new HashMap<>());
+        for (Stmt statement : statements)
+            infer(statement);
+    }
+
+    private void infer(Stmt stmt) {
+        stmt.accept(this);
+    }
+    private int infer(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void beginScope(List<Stmt> statements) {
+        Map<String, Integer> scope = new HashMap<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var)
+                scope.put(((Stmt.Var) statement).name.lexeme, UNDECLARED);
+            else if (statement instanceof Stmt.Function)
+                scope.put(((Stmt.Function) statement).name.lexeme, UNDECLARED);
+        }
+        scopes.add(scope);
+    }
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private void declare(Token name, int type) {
+        scopes.get(scopes.size() - 1).put(name.lexeme, type);
+    }
+
+    private List<Map<String, Integer>> snapshot() {
+        List<Map<String, Integer>> copy = new ArrayList<>(scopes.size());
+        for (Map<String, Integer> scope : scopes)
+            copy.add(new HashMap<>(scope));
+        return copy;
+    }
+    // Both sides always have the same scopes and names: declarations only happen
+    // directly in a block, never inside a branch or loop of that same scope.
+    private static List<Map<String, Integer>> join(List<Map<String, Integer>> a, List<Map<String, Integer>> b) {
+        List<Map<String, Integer>> joined = new ArrayList<>(a.size());
+        for (int i = 0; i < a.size(); i++) {
+            Map<String, Integer> scope = new HashMap<>(a.get(i));
+            for (Map.Entry<String, Integer> entry : b.get(i).entrySet())
+                scope.merge(entry.getKey(), entry.getValue(), TypeInference::join);
+            joined.add(scope);
+        }
+        return joined;
+    }
+    private static int join(int a, int b) {
+        if (a == b)
+            return a;
+        if (a == BOXED || b == BOXED)
+            return BOXED;
+        if (a == UNDECLARED || b == UNDECLARED)
+            return UNDECLARED;
+        return UNKNOWN;
+    }
+
+    // Runs the loop parts until the state at the loop head stops changing, without
+    // annotating, then once more from that state to annotate. The state after the
+    // loop is the one in which the condition was last evaluated.
+    private void loop(Expr condition, Stmt body, Expr increment) {
+        dry++;
+        while (true) {
+            List<Map<String, Integer>> head = snapshot();
+            iteration(condition, body, increment);
+            scopes = join(head, scopes);
+            if (scopes.equals(head))
+                break;
+        }
+        dry--;
+        if (condition != null)
+            infer(condition);
+        List<Map<String, Integer>> exit = snapshot();
+        infer(body);
+        if (increment != null)
+            infer(increment);
+        scopes = exit;
+    }
+    private void iteration(Expr condition, Stmt body, Expr increment) {
+        if (condition != null)
+            infer(condition);
+        infer(body);
+        if (increment != null)
+            infer(increment);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope(stmt.statements);
+        for (Stmt statement : stmt.statements)
+            infer(statement);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        boolean scoped = stmt.initializer instanceof Stmt.Var;
+        if (scoped)
+            beginScope(Collections.singletonList(stmt.initializer));
+        if (stmt.initializer != null)
+            infer(stmt.initializer);
+        loop(stmt.condition, stmt.body, stmt.increment);
+        if (scoped)
+            endScope();
+        return null;
+    }
+
+    // A body is analysed once, on its own: its state starts from its parameters,
+    // and nothing it does changes what the enclosing code knows.
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name, stmt.boxed ? BOXED : UNKNOWN);
+        if (dry > 0 || stmt.body == null)
+            return null;
+        List<Map<String, Integer>> enclosing = scopes;
+        boolean enclosingGlobals = globals;
+        scopes = new ArrayList<>();
+        globals = false;
+        beginScope(stmt.body);
+        for (int i = 0; i < stmt.params.size(); i++) {
+            boolean boxed = stmt.boxedParams != null && stmt.boxedParams[i];
+            declare(stmt.params.get(i), boxed ? BOXED : UNKNOWN);
+        }
+        for (Stmt statement : stmt.body)
+            infer(statement);
+        scopes = enclosing;
+        globals = enclosingGlobals;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        infer(stmt.condition);
+        List<Map<String, Integer>> otherwise = snapshot();
+        infer(stmt.thenBranch);
+        List<Map<String, Integer>> then = scopes;
+        scopes = otherwise;
+        if (stmt.elseBranch != null)
+            infer(stmt.elseBranch);
+        scopes = join(then, scopes);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        declare(stmt.name, UNKNOWN);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null)
+            infer(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        int type = stmt.initialization == null ? NONE : infer(stmt.initialization);
+        declare(stmt.name, stmt.boxed ? BOXED : type);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        loop(stmt.condition, stmt.body, null);
+        return null;
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        int type = infer(expr.value);
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Map<String, Integer> scope = scopes.get(i);
+            Integer current = scope.get(expr.name.lexeme);
+            if (current == null || current == UNDECLARED)
+                continue;
+            if (current != BOXED)
+                scope.put(expr.name.lexeme, type);
+            break;
+        }
+        return type;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        int left = infer(expr.left);
+        int right = infer(expr.right);
+        if (dry == 0)
+            expr.operands = left == right && (left == INTEGER || left == STRING) ? left : UNKNOWN;
+        switch (expr.operator.type) {
+            case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+            case EQUAL: case BANG_EQUAL:
+                return BOOLEAN;
+            case PLUS: case MINUS: case SLASH:
+                return numeric(left, right);
+            case STAR:
+                if (left == STRING && right == STRING)
+                    return STRING;
+                return numeric(left, right);
+        }
+        return UNKNOWN;
+    }
+    private static int numeric(int left, int right) {
+        if (left == INTEGER && right == INTEGER)
+            return INTEGER;
+        if ((left == INTEGER || left == DECIMAL) && (right == INTEGER || right == DECIMAL))
+            return DECIMAL;
+        return UNKNOWN;
+    }
+
+    // Any call can run a function that assigns globals.
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+        infer(expr.callee);
+        for (Expr argument : expr.arguments)
+            infer(argument);
+        if (globals)
+            scopes.get(0).replaceAll((name, type) -> UNKNOWN);
+        return UNKNOWN;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    // Unlike a function's parameters, an inlined call's are known: they hold the
+    // arguments of this one call.
+    @Override
+    public Integer visitInlineExpr(Expr.Inline expr) {
+        int[] types = new int[expr.arguments.size()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = infer(expr.arguments.get(i));
+        int[] caller = frame;
+        frame = types;
+        int type = infer(expr.body);
+        frame = caller;
+        return type;
+    }
+
+    @Override
+    public Integer visitParameterExpr(Expr.Parameter expr) {
+        return frame[expr.slot];
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value instanceof BigInteger)
+            return INTEGER;
+        if (value instanceof Decimal || value instanceof BigDecimal)
+            return DECIMAL;
+        if (value instanceof String)
+            return STRING;
+        if (value instanceof Boolean)
+            return BOOLEAN;
+        if (value == null)
+            return NONE;
+        return UNKNOWN;
+    }
+
+    // `or` returns its left operand without evaluating the right one; `and` always
+    // evaluates both and returns the right one.
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+        int left = infer(expr.left);
+        if (expr.operator.type == TokenType.OR) {
+            List<Map<String, Integer>> skipped = snapshot();
+            infer(expr.right);
+            scopes = skipped;
+            return left;
+        }
+        return infer(expr.right);
+    }
+
+    @Override
+    public Integer visitMapLiteralExpr(Expr.MapLiteral expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            infer(expr.keys.get(i));
+            infer(expr.values.get(i));
+        }
+        return UNKNOWN;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        infer(expr.right);
+        return expr.operator.type == TokenType.BANG ? BOOLEAN : UNKNOWN;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Integer type = scopes.get(i).get(expr.name.lexeme);
+            if (type == null)
+                continue;
+            return type < 0 ? UNKNOWN : type;
+        }
+        return UNKNOWN;
+    }
+}
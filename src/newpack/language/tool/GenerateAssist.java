@@ -14,25 +14,32 @@ public class GenerateAssist {
         String outputDir = args[0];
         defineAssist(outputDir, "Expr", Arrays.asList(
                 "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
+                "Binary   : Expr left, Token operator, Expr right | int operands",
                 "Call     : Expr callee, Token paren, List<Expr> arguments",
                 "Grouping : Expr expression",
+                "Inline   : Token paren, List<Expr> arguments, Expr body",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
+                "MapLiteral : Token brace, List<Expr> keys, List<Expr> values",
+                "Parameter : Token name, int slot",
                 "Unary    : Token operator, Expr right",
                 "Variable : Token name"
         ));
         defineAssist(outputDir, "Stmt", Arrays.asList(
-                "Block : List<Stmt> statements",
+                "Block : List<Stmt> statements | boolean scopeless, int locals",
                 "Expression : Expr expression",
-                "Function : Token name, List<Token> params," +
-                        " List<Stmt> body",
+                "For : Token keyword, Stmt initializer, Expr condition," +
+                        " Expr increment, Stmt body | boolean counted, boolean exposed, long step",
+                "Function : Token name, List<Token> params | List<Stmt> body, List<Token> deferred," +
+                        " boolean boxed, boolean[] boxedParams," +
+                        " List<Resolver.Capture> captures, int locals",
                 "If : Expr condition, Stmt thenBranch," +
                         " Stmt elseBranch",
+                "Import : Token keyword, Token name",
                 "Print : Expr expression",
                 "Return : Token expression, Expr value",
-                "Var : Token name, Expr initialization",
-                "While : Expr condition, Stmt body"
+                "Var : Token name, Expr initialization | boolean boxed",
+                "While : Token keyword, Expr condition, Stmt body"
         ));
     }
     private static void defineAssist(String outputDir, String baseName, List<String> types) throws IOException {
@@ -63,7 +70,14 @@ public class GenerateAssist {
         writer.println("    }");
     }
 
+    // Fields after a '|' are not constructor parameters; the parser or the resolver
+    // fills them in afterwards, and their defaults have to mean "not resolved".
     private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+        String[] annotations = new String[0];
+        if (fieldList.contains("|")) {
+            annotations = fieldList.split("\\|")[1].trim().split(", ");
+            fieldList = fieldList.split("\\|")[0].trim();
+        }
         writer.println(" static class " + className + " extends " + baseName + " {");
         writer.println("    " + className + "(" + fieldList + ") {");
         String[] fields = fieldList.split(", ");
@@ -80,6 +94,9 @@ public class GenerateAssist {
         for (String field : fields) {
             writer.println("    final " + field + ";");
         }
+        for (String annotation : annotations) {
+            writer.println("    " + annotation + ";");
+        }
         writer.println("    }");
 
     }